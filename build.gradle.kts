@@ -2,6 +2,7 @@ plugins {
     java
     id("com.github.johnrengelman.shadow") version "8.1.1"
     id("net.kyori.indra.licenser.spotless") version "3.1.3"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
@@ -20,7 +21,6 @@ repositories {
             includeGroup("org.vineflower")
         }
     }
-    maven("https://maven.neoforged.net/releases/")
     maven("https://maven.fabricmc.net/")
 }
 
@@ -28,12 +28,61 @@ dependencies {
     implementation("com.squareup.moshi:moshi:1.14.0")
     implementation("info.picocli:picocli:4.7.5")
     implementation("org.vineflower:vineflower:1.10.0-SNAPSHOT")
-    implementation("net.neoforged:DiffPatch:2.0.14")
     implementation("net.fabricmc:tiny-remapper:0.8.10")
+    implementation("org.ow2.asm:asm:9.6")
     implementation("net.fabricmc:stitch:0.6.2") {
         exclude(module = "guava")
     }
     compileOnly("org.jetbrains:annotations:24.0.1")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.1"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// The versions of the tools are part of the cache keys, and they can't be read from the manifests in a shadow jar
+val generateToolVersions by tasks.registering {
+    val artifacts = configurations.runtimeClasspath.get().incoming.artifacts.resolvedArtifacts
+    val outputDir = layout.buildDirectory.dir("generated/toolVersions")
+    inputs.files(configurations.runtimeClasspath)
+    outputs.dir(outputDir)
+
+    doLast {
+        val properties = java.util.Properties()
+
+        for (artifact in artifacts.get()) {
+            val id = artifact.id.componentIdentifier as? ModuleComponentIdentifier ?: continue
+            var version = id.version
+
+            // Snapshots keep their version when they're republished, so they're identified by their contents
+            if (version.endsWith("-SNAPSHOT")) {
+                val digest = java.security.MessageDigest.getInstance("SHA-1").digest(artifact.file.readBytes())
+                version += "+" + java.util.HexFormat.of().formatHex(digest)
+            }
+
+            properties.setProperty(id.module, version)
+        }
+
+        val file = outputDir.get().file("juuxel/mccmp/tool-versions.properties").asFile
+        file.parentFile.mkdirs()
+        file.writer().use { properties.store(it, null) }
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(generateToolVersions)
+    }
+}
+
+// Run with ./gradlew jmh, the fixtures are generated so that no game files are needed
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    fork.set(1)
+    warmupIterations.set(2)
+    iterations.set(5)
 }
 
 indraSpotlessLicenser {
@@ -42,6 +91,10 @@ indraSpotlessLicenser {
 }
 
 tasks {
+    test {
+        useJUnitPlatform()
+    }
+
     jar {
         manifest {
             attributes("Main-Class" to "juuxel.mccmp.Mccmp")
@@ -0,0 +1,197 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the inputs of the benchmarks, so that they can run offline and without any game files.
+ *
+ * <p>The generated game jar contains obfuscated-looking classes {@code a0}, {@code a1}, ...,
+ * each with a field {@code a} and methods {@code a()I} and {@code b(I)I}. The mappings name them
+ * {@code net/example/p<n>/Class<i>}.
+ */
+final class BenchmarkFixtures {
+    private static final int PACKAGE_COUNT = 10;
+
+    static String officialName(int index) {
+        return "a" + index;
+    }
+
+    static String namedName(int index) {
+        return "net/example/p" + index % PACKAGE_COUNT + "/Class" + index;
+    }
+
+    /**
+     * Creates a game jar.
+     *
+     * @param variant changes the constants in a tenth of the classes, so that different variants can be diffed
+     */
+    static Path createGameJar(Path path, int classCount, int variant) throws IOException {
+        try (var out = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (int i = 0; i < classCount; i++) {
+                out.putNextEntry(new ZipEntry(officialName(i) + ".class"));
+                out.write(createClass(i, i % 10 == 0 ? variant : 0));
+                out.closeEntry();
+            }
+        }
+
+        return path;
+    }
+
+    private static byte[] createClass(int index, int variant) {
+        var name = officialName(index);
+        var writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+
+        MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor getter = writer.visitMethod(Opcodes.ACC_PUBLIC, "a", "()I", null, null);
+        getter.visitCode();
+        getter.visitVarInsn(Opcodes.ALOAD, 0);
+        getter.visitFieldInsn(Opcodes.GETFIELD, name, "a", "I");
+        getter.visitInsn(Opcodes.IRETURN);
+        getter.visitMaxs(0, 0);
+        getter.visitEnd();
+
+        // int b(int n) { int sum = variant; for (int i = 0; i < n; i++) sum += i * a; return sum; }
+        MethodVisitor loop = writer.visitMethod(Opcodes.ACC_PUBLIC, "b", "(I)I", null, null);
+        var condition = new Label();
+        var body = new Label();
+        loop.visitCode();
+        loop.visitLdcInsn(variant);
+        loop.visitVarInsn(Opcodes.ISTORE, 2);
+        loop.visitInsn(Opcodes.ICONST_0);
+        loop.visitVarInsn(Opcodes.ISTORE, 3);
+        loop.visitJumpInsn(Opcodes.GOTO, condition);
+        loop.visitLabel(body);
+        loop.visitVarInsn(Opcodes.ILOAD, 2);
+        loop.visitVarInsn(Opcodes.ILOAD, 3);
+        loop.visitVarInsn(Opcodes.ALOAD, 0);
+        loop.visitFieldInsn(Opcodes.GETFIELD, name, "a", "I");
+        loop.visitInsn(Opcodes.IMUL);
+        loop.visitInsn(Opcodes.IADD);
+        loop.visitVarInsn(Opcodes.ISTORE, 2);
+        loop.visitIincInsn(3, 1);
+        loop.visitLabel(condition);
+        loop.visitVarInsn(Opcodes.ILOAD, 3);
+        loop.visitVarInsn(Opcodes.ILOAD, 1);
+        loop.visitJumpInsn(Opcodes.IF_ICMPLT, body);
+        loop.visitVarInsn(Opcodes.ILOAD, 2);
+        loop.visitInsn(Opcodes.IRETURN);
+        loop.visitMaxs(0, 0);
+        loop.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Creates a Yarn-like mappings jar with {@code mappings/mappings.tiny} in the Tiny v1 or v2 format.
+     * The v1 mappings leave the fields unnamed, like old Yarn versions, so that field names are proposed for them.
+     */
+    static Path createMappingsJar(Path path, int classCount, boolean v1) throws IOException {
+        var sb = new StringBuilder(v1 ? "v1\tofficial\tintermediary\tnamed\n" : "tiny\t2\t0\tofficial\tintermediary\tnamed\n");
+
+        for (int i = 0; i < classCount; i++) {
+            var official = officialName(i);
+            var named = namedName(i);
+
+            if (v1) {
+                sb.append("CLASS\t").append(official).append("\tnet/minecraft/class_").append(i).append('\t').append(named).append('\n');
+                sb.append("FIELD\t").append(official).append("\tI\ta\tfield_").append(i).append('\t').append('\n');
+                sb.append("METHOD\t").append(official).append("\t()I\ta\tmethod_").append(i).append("\tgetValue\n");
+                sb.append("METHOD\t").append(official).append("\t(I)I\tb\tmethod_").append(i).append("_b\tsum\n");
+            } else {
+                sb.append("c\t").append(official).append("\tnet/minecraft/class_").append(i).append('\t').append(named).append('\n');
+                sb.append("\tf\tI\ta\tfield_").append(i).append("\tvalue\n");
+                sb.append("\tm\t()I\ta\tmethod_").append(i).append("\tgetValue\n");
+                sb.append("\tm\t(I)I\tb\tmethod_").append(i).append("_b\tsum\n");
+            }
+        }
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(path))) {
+            out.putNextEntry(new ZipEntry("mappings/mappings.tiny"));
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        return path;
+    }
+
+    /**
+     * Creates a jar of source files.
+     *
+     * @param variant changes a few lines in a tenth of the files, so that different variants can be diffed
+     */
+    static Path createSourceJar(Path path, int fileCount, int variant) throws IOException {
+        try (var out = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (int i = 0; i < fileCount; i++) {
+                out.putNextEntry(new ZipEntry(namedName(i) + ".java"));
+                out.write(createSource(i, i % 10 == 0 ? variant : 0).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        return path;
+    }
+
+    private static String createSource(int index, int variant) {
+        var name = namedName(index);
+        var sb = new StringBuilder()
+            .append("package ").append(name.substring(0, name.lastIndexOf('/')).replace('/', '.')).append(";\n\n")
+            .append("public class ").append(name.substring(name.lastIndexOf('/') + 1)).append(" {\n")
+            .append("    private int value;\n");
+
+        for (int method = 0; method < 20; method++) {
+            sb.append("\n    public int sum").append(method).append("(int count) {\n")
+                .append("        int sum = ").append(method == 10 ? variant : 0).append(";\n")
+                .append("        for (int i = 0; i < count; i++) {\n")
+                .append("            sum += i * this.value;\n")
+                .append("        }\n\n")
+                .append("        return sum;\n")
+                .append("    }\n");
+        }
+
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Creates a version manifest in the format of {@code version_manifest_v2.json}.
+     */
+    static String createGlobalManifest(int versionCount) {
+        var sb = new StringBuilder("{\"latest\":{\"release\":\"1.0.0\",\"snapshot\":\"1.0.0\"},\"versions\":[");
+
+        for (int i = 0; i < versionCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"1.0.").append(i)
+                .append("\",\"type\":\"").append(i % 5 == 0 ? "release" : "snapshot")
+                .append("\",\"url\":\"https://piston-meta.mojang.com/v1/packages/").append("%040x".formatted(i)).append("/1.0.").append(i).append(".json")
+                .append("\",\"time\":\"2023-01-01T00:00:00+00:00\",\"releaseTime\":\"2023-01-01T00:00:00+00:00\"")
+                .append(",\"sha1\":\"").append("%040x".formatted(i)).append("\",\"complianceLevel\":1}");
+        }
+
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks decompiling a fixed subset of the classes in a game jar with an empty decompilation cache.
+ */
+@State(Scope.Benchmark)
+public class DecompileBenchmark {
+    @Param("2000")
+    public int classCount;
+
+    @Param("200")
+    public int changedCount;
+
+    @Param("4")
+    public int threads;
+
+    private Path workDir;
+    private Path gameJar;
+    private ClassGroups.Changes changes;
+    private Decompiler decompiler;
+    private Path sourceJar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("mccmp-bench");
+        gameJar = BenchmarkFixtures.createGameJar(workDir.resolve("game.jar"), classCount, 0);
+
+        Set<String> changed = IntStream.range(0, changedCount)
+            .mapToObj(i -> BenchmarkFixtures.officialName(i) + ".class")
+            .collect(Collectors.toSet());
+        try (var pool = new ForkJoinPool(threads)) {
+            changes = new ClassGroups.Changes(ClassGroups.hash(gameJar, pool), changed);
+        }
+        sourceJar = workDir.resolve("sources.jar");
+    }
+
+    // A fresh cache for each invocation, so that every class is decompiled
+    @Setup(Level.Invocation)
+    public void resetCache() throws IOException {
+        var cacheDir = workDir.resolve("cache");
+        MoreFiles.deleteRecursively(cacheDir);
+        Files.deleteIfExists(sourceJar);
+        decompiler = new Decompiler(new DecompileCache(cacheDir, Long.MAX_VALUE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public Path decompile() throws IOException {
+        decompiler.decompile("bench", gameJar, List.of(), List.of(), changes, sourceJar, threads);
+        return sourceJar;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks diffing two source jars where a tenth of the files have changed.
+ */
+@State(Scope.Benchmark)
+public class DiffBenchmark {
+    @Param("2000")
+    public int fileCount;
+
+    @Param("4")
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean archive;
+
+    private Path workDir;
+    private Path a;
+    private Path b;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("mccmp-bench");
+        a = BenchmarkFixtures.createSourceJar(workDir.resolve("a.jar"), fileCount, 0);
+        b = BenchmarkFixtures.createSourceJar(workDir.resolve("b.jar"), fileCount, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void diff() throws IOException {
+        Pipeline.diff(a, b, archive ? workDir.resolve("diff.jar") : null, null, workDir.resolve("diff"), threads);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.sun.net.httpserver.HttpServer;
+import juuxel.mccmp.data.GlobalManifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmarks downloading and parsing a version manifest from a local HTTP server.
+ */
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+    @Param("1000")
+    public int versionCount;
+
+    private HttpServer server;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] manifest = BenchmarkFixtures.createGlobalManifest(versionCount).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/version_manifest_v2.json", exchange -> {
+            try (exchange) {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, manifest.length);
+                exchange.getResponseBody().write(manifest);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/version_manifest_v2.json";
+
+        // Don't read or write the metadata cache of a real output directory
+        Download.setMetadataCache(null);
+        Download.setOffline(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public GlobalManifest json() {
+        return Download.json(url, GlobalManifest.class).join();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks {@link Mappings#extractMappings}, including the field name proposal for Tiny v1 mappings.
+ */
+@State(Scope.Benchmark)
+public class MappingsBenchmark {
+    @Param({"v1", "v2"})
+    public String format;
+
+    @Param("2000")
+    public int classCount;
+
+    private Path workDir;
+    private Path gameJar;
+    private Path mappingsJar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("mccmp-bench");
+        gameJar = BenchmarkFixtures.createGameJar(workDir.resolve("game.jar"), classCount, 0);
+        mappingsJar = BenchmarkFixtures.createMappingsJar(workDir.resolve("yarn-" + format + ".jar"), classCount, format.equals("v1"));
+    }
+
+    // The extracted mappings are reused if they exist
+    @Setup(Level.Invocation)
+    public void deleteOutput() throws IOException {
+        Files.deleteIfExists(workDir.resolve("yarn-" + format + ".tiny"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public Path extractMappings() throws IOException {
+        return Mappings.extractMappings(gameJar, mappingsJar, Runtime.getRuntime().availableProcessors());
+    }
+}
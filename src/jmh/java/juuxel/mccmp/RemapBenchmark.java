@@ -0,0 +1,71 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import juuxel.mccmp.data.MinecraftMetadata;
+import juuxel.mccmp.data.VersionManifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks remapping a game jar with binary mappings.
+ */
+@State(Scope.Benchmark)
+public class RemapBenchmark {
+    @Param("2000")
+    public int classCount;
+
+    @Param("4")
+    public int threads;
+
+    private Path workDir;
+    private MinecraftMetadata metadata;
+    private Path mappings;
+    private Path remappedJar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("mccmp-bench");
+        var gameJar = BenchmarkFixtures.createGameJar(workDir.resolve("game.jar"), classCount, 0);
+        var mappingsJar = BenchmarkFixtures.createMappingsJar(workDir.resolve("yarn.jar"), classCount, false);
+        metadata = new MinecraftMetadata("bench", new VersionManifest("bench", Map.of(), List.of()), gameJar, mappingsJar);
+        mappings = Mappings.loadMappings(gameJar, null, mappingsJar, workDir.resolve("mappings"), threads);
+        remappedJar = workDir.resolve("minecraft-bench-yarn.jar");
+    }
+
+    // The remapped jar is reused if it exists
+    @Setup(Level.Invocation)
+    public void deleteOutput() throws IOException {
+        Files.deleteIfExists(remappedJar);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public Path remap() {
+        return Pipeline.remap(metadata, mappings, List.of(), threads);
+    }
+
+    @Benchmark
+    public JarContents remapInMemory() {
+        return Pipeline.remapInMemory(metadata, mappings, List.of(), threads);
+    }
+}
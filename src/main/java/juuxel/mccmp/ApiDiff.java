@@ -0,0 +1,374 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.squareup.moshi.JsonAdapter;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares the declarations of two jars at the bytecode level without decompiling them.
+ * Only the class headers, fields and method declarations are read; method bodies are skipped.
+ * Synthetic classes and members are ignored since they aren't part of the API.
+ */
+public final class ApiDiff {
+    private static final int SKIP_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    private static final JsonAdapter<Report> REPORT_ADAPTER = Download.MOSHI.adapter(Report.class).indent("  ");
+
+    /**
+     * Diffs the declarations of two jars.
+     *
+     * @param a    the old jar
+     * @param b    the new jar
+     * @param pool the pool used for reading the classes
+     * @return the report
+     */
+    public static Report diff(Path a, Path b, ForkJoinPool pool) throws IOException {
+        return compare(pool.submit(() -> read(a)).join(), pool.submit(() -> read(b)).join());
+    }
+
+    /**
+     * Diffs the declarations of two jars held in memory.
+     *
+     * @param a    the old jar
+     * @param b    the new jar
+     * @param pool the pool used for reading the classes
+     * @return the report
+     */
+    public static Report diff(JarContents a, JarContents b, ForkJoinPool pool) {
+        return compare(pool.submit(() -> read(a)).join(), pool.submit(() -> read(b)).join());
+    }
+
+    private static Report compare(Map<String, ClassApi> aClasses, Map<String, ClassApi> bClasses) {
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<ClassChange> changed = new ArrayList<>();
+
+        for (String name : union(aClasses.keySet(), bClasses.keySet())) {
+            var aClass = aClasses.get(name);
+            var bClass = bClasses.get(name);
+
+            if (aClass == null) {
+                added.add(name);
+            } else if (bClass == null) {
+                removed.add(name);
+            } else {
+                var change = compareClasses(aClass, bClass);
+                if (change != null) changed.add(change);
+            }
+        }
+
+        return new Report(added, removed, changed);
+    }
+
+    private static Map<String, ClassApi> read(Path jar) {
+        try (var zip = new ZipFile(jar.toFile())) {
+            return zip.stream()
+                .parallel()
+                .filter(entry -> entry.getName().endsWith(".class"))
+                .map(entry -> readClass(zip, entry))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toConcurrentMap(ClassApi::name, Function.identity()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, ClassApi> read(JarContents jar) {
+        return jar.entries()
+            .entrySet()
+            .parallelStream()
+            .filter(entry -> entry.getKey().endsWith(".class"))
+            .map(entry -> readClass(entry.getValue()))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toConcurrentMap(ClassApi::name, Function.identity()));
+    }
+
+    private static @Nullable ClassApi readClass(ZipFile zip, ZipEntry entry) {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return readClass(in.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static @Nullable ClassApi readClass(byte[] bytes) {
+        var reader = new ApiReader();
+        new ClassReader(bytes).accept(reader, SKIP_FLAGS);
+        return reader.result;
+    }
+
+    private static @Nullable ClassChange compareClasses(ClassApi a, ClassApi b) {
+        List<String> changes = new ArrayList<>();
+        compareProperty(changes, "access", Modifiers.CLASS.format(a.access()), Modifiers.CLASS.format(b.access()));
+        compareProperty(changes, "signature", a.signature(), b.signature());
+        compareProperty(changes, "superclass", a.superName(), b.superName());
+        compareProperty(changes, "interfaces", a.interfaces().toString(), b.interfaces().toString());
+        compareProperty(changes, "annotations", a.annotations().toString(), b.annotations().toString());
+
+        List<String> addedMembers = new ArrayList<>();
+        List<String> removedMembers = new ArrayList<>();
+        List<MemberChange> changedMembers = new ArrayList<>();
+        compareMembers(a.members(), b.members(), addedMembers, removedMembers, changedMembers);
+
+        if (changes.isEmpty() && addedMembers.isEmpty() && removedMembers.isEmpty() && changedMembers.isEmpty()) {
+            return null;
+        }
+
+        return new ClassChange(a.name(), changes, addedMembers, removedMembers, changedMembers);
+    }
+
+    private static void compareMembers(
+        Map<String, MemberApi> a,
+        Map<String, MemberApi> b,
+        List<String> added,
+        List<String> removed,
+        List<MemberChange> changed
+    ) {
+        for (String key : union(a.keySet(), b.keySet())) {
+            var aMember = a.get(key);
+            var bMember = b.get(key);
+
+            if (aMember == null) {
+                added.add(key);
+            } else if (bMember == null) {
+                removed.add(key);
+            } else {
+                List<String> changes = new ArrayList<>();
+                compareProperty(changes, "access", aMember.modifiers().format(aMember.access()), bMember.modifiers().format(bMember.access()));
+                compareProperty(changes, "signature", aMember.signature(), bMember.signature());
+                compareProperty(changes, "annotations", aMember.annotations().toString(), bMember.annotations().toString());
+
+                if (!changes.isEmpty()) {
+                    changed.add(new MemberChange(key, changes));
+                }
+            }
+        }
+    }
+
+    private static void compareProperty(List<String> changes, String property, @Nullable String a, @Nullable String b) {
+        if (!Objects.equals(a, b)) {
+            changes.add(property + ": " + a + " -> " + b);
+        }
+    }
+
+    private static TreeSet<String> union(Iterable<String> a, Iterable<String> b) {
+        var result = new TreeSet<String>();
+        a.forEach(result::add);
+        b.forEach(result::add);
+        return result;
+    }
+
+    /**
+     * The modifier names of the access flags of each kind of declaration in source order.
+     * Classes, fields and methods use some of the same bits for different flags,
+     * such as {@code 0x20} for {@code ACC_SUPER} and {@code ACC_SYNCHRONIZED}.
+     */
+    private enum Modifiers {
+        CLASS(
+            new int[] { Opcodes.ACC_PUBLIC, Opcodes.ACC_ABSTRACT, Opcodes.ACC_FINAL, Opcodes.ACC_INTERFACE, Opcodes.ACC_ANNOTATION, Opcodes.ACC_ENUM, Opcodes.ACC_RECORD },
+            new String[] { "public", "abstract", "final", "interface", "annotation", "enum", "record" }
+        ),
+        FIELD(
+            new int[] {
+                Opcodes.ACC_PUBLIC, Opcodes.ACC_PROTECTED, Opcodes.ACC_PRIVATE, Opcodes.ACC_STATIC,
+                Opcodes.ACC_FINAL, Opcodes.ACC_TRANSIENT, Opcodes.ACC_VOLATILE, Opcodes.ACC_ENUM,
+            },
+            new String[] { "public", "protected", "private", "static", "final", "transient", "volatile", "enum" }
+        ),
+        METHOD(
+            new int[] {
+                Opcodes.ACC_PUBLIC, Opcodes.ACC_PROTECTED, Opcodes.ACC_PRIVATE, Opcodes.ACC_ABSTRACT, Opcodes.ACC_STATIC,
+                Opcodes.ACC_FINAL, Opcodes.ACC_SYNCHRONIZED, Opcodes.ACC_NATIVE, Opcodes.ACC_STRICT, Opcodes.ACC_VARARGS,
+            },
+            new String[] { "public", "protected", "private", "abstract", "static", "final", "synchronized", "native", "strictfp", "varargs" }
+        );
+
+        private final int[] flags;
+        private final String[] names;
+
+        Modifiers(int[] flags, String[] names) {
+            this.flags = flags;
+            this.names = names;
+        }
+
+        String format(int access) {
+            List<String> modifiers = new ArrayList<>();
+
+            for (int i = 0; i < flags.length; i++) {
+                if ((access & flags[i]) != 0) {
+                    modifiers.add(names[i]);
+                }
+            }
+
+            return String.join(" ", modifiers);
+        }
+    }
+
+    private static final class ApiReader extends ClassVisitor {
+        private @Nullable ClassApi result;
+        private final TreeSet<String> annotations = new TreeSet<>();
+        private final Map<String, MemberApi> members = new TreeMap<>();
+
+        ApiReader() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            if ((access & Opcodes.ACC_SYNTHETIC) != 0) return;
+
+            List<String> sortedInterfaces = interfaces != null ? Arrays.stream(interfaces).sorted().toList() : List.of();
+            result = new ClassApi(name, access, signature, superName, sortedInterfaces, annotations, members);
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            annotations.add(descriptor);
+            return null;
+        }
+
+        @Override
+        public @Nullable FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if ((access & Opcodes.ACC_SYNTHETIC) != 0) return null;
+
+            var memberAnnotations = new TreeSet<String>();
+            members.put("field " + name + ":" + descriptor, new MemberApi(Modifiers.FIELD, access, signature, memberAnnotations));
+            return new FieldVisitor(Opcodes.ASM9) {
+                @Override
+                public @Nullable AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    memberAnnotations.add(descriptor);
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public @Nullable MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if ((access & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE)) != 0) return null;
+
+            var memberAnnotations = new TreeSet<String>();
+            members.put("method " + name + descriptor, new MemberApi(Modifiers.METHOD, access, signature, memberAnnotations));
+            return new MethodVisitor(Opcodes.ASM9) {
+                @Override
+                public @Nullable AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    memberAnnotations.add(descriptor);
+                    return null;
+                }
+            };
+        }
+    }
+
+    private record ClassApi(
+        String name,
+        int access,
+        @Nullable String signature,
+        @Nullable String superName,
+        List<String> interfaces,
+        TreeSet<String> annotations,
+        Map<String, MemberApi> members
+    ) {
+    }
+
+    private record MemberApi(Modifiers modifiers, int access, @Nullable String signature, TreeSet<String> annotations) {
+    }
+
+    /**
+     * A change to an existing member.
+     *
+     * @param member  the member, such as {@code method foo(I)V} or {@code field bar:I}
+     * @param changes the changed properties
+     */
+    public record MemberChange(String member, List<String> changes) {
+    }
+
+    /**
+     * A change to a class that exists in both jars.
+     *
+     * @param name           the internal name of the class
+     * @param changes        the changed properties of the class itself
+     * @param addedMembers   the added fields and methods
+     * @param removedMembers the removed fields and methods
+     * @param changedMembers the changed fields and methods
+     */
+    public record ClassChange(
+        String name,
+        List<String> changes,
+        List<String> addedMembers,
+        List<String> removedMembers,
+        List<MemberChange> changedMembers
+    ) {
+    }
+
+    public record Report(List<String> addedClasses, List<String> removedClasses, List<ClassChange> changedClasses) {
+        public boolean isEmpty() {
+            return addedClasses.isEmpty() && removedClasses.isEmpty() && changedClasses.isEmpty();
+        }
+
+        public String toJson() {
+            return REPORT_ADAPTER.toJson(this);
+        }
+
+        public String toText() {
+            var sb = new StringBuilder();
+            addedClasses.forEach(name -> sb.append("+ class ").append(name).append('\n'));
+            removedClasses.forEach(name -> sb.append("- class ").append(name).append('\n'));
+
+            for (ClassChange change : changedClasses) {
+                sb.append("~ class ").append(change.name()).append('\n');
+                change.changes().forEach(c -> sb.append("    ").append(c).append('\n'));
+                change.addedMembers().forEach(m -> sb.append("    + ").append(m).append('\n'));
+                change.removedMembers().forEach(m -> sb.append("    - ").append(m).append('\n'));
+
+                for (MemberChange member : change.changedMembers()) {
+                    sb.append("    ~ ").append(member.member()).append('\n');
+                    member.changes().forEach(c -> sb.append("        ").append(c).append('\n'));
+                }
+            }
+
+            return sb.toString();
+        }
+
+        public void write(Path textFile, Path jsonFile) throws IOException {
+            Files.createDirectories(textFile.getParent());
+            Files.createDirectories(jsonFile.getParent());
+            Files.writeString(textFile, toText(), StandardCharsets.UTF_8);
+            Files.writeString(jsonFile, toJson(), StandardCharsets.UTF_8);
+        }
+
+        public void printSummary(PrintStream out) {
+            out.println("Added classes:   " + addedClasses.size());
+            out.println("Removed classes: " + removedClasses.size());
+            out.println("Changed classes: " + changedClasses.size());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@CommandLine.Command(name = "batch", mixinStandardHelpOptions = true, description = "Diffs each consecutive pair in a chain of versions")
+public final class BatchCommand implements Runnable {
+    @CommandLine.ArgGroup(multiplicity = "1")
+    public Selection selection;
+
+    @CommandLine.Mixin
+    public PipelineOptions options = new PipelineOptions();
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @Override
+    public void run() {
+        try (var pipeline = options.createPipeline()) {
+            List<String> chain = selection.versions != null
+                ? selection.versions
+                : resolveChain(pipeline);
+
+            if (chain.size() < 2) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "At least two versions are needed, got " + chain);
+            }
+
+            System.out.println(":comparing " + String.join(" -> ", chain));
+            List<Pair<String, String>> pairs = new ArrayList<>();
+
+            for (int i = 0; i < chain.size() - 1; i++) {
+                pairs.add(new Pair<>(chain.get(i), chain.get(i + 1)));
+            }
+
+            var results = pipeline.compareAll(pairs);
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String> resolveChain(Pipeline pipeline) {
+        if (selection.range != null) {
+            var parts = selection.range.split("\\.\\.", 2);
+            if (parts.length != 2) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "Invalid range, expected <from>..<to>: " + selection.range);
+            }
+
+            // Ranges between known versions don't need the global manifest
+            var index = pipeline.versionIndex(parts[0], parts[1]).join();
+            int start = indexOf(index, parts[0]);
+            int end = indexOf(index, parts[1]);
+            if (end < start) {
+                throw new CommandLine.ParameterException(spec.commandLine(), parts[1] + " is older than " + parts[0]);
+            }
+
+            return index.versions().subList(start, end + 1).stream().map(VersionIndex.Entry::id).toList();
+        }
+
+        // Newer snapshots might have been released since the index was written
+        var index = pipeline.refreshVersionIndex().join();
+        var versions = index.versions();
+        int start = indexOf(index, selection.snapshotsSince);
+        List<String> chain = new ArrayList<>();
+        chain.add(versions.get(start).id());
+
+        for (var version : versions.subList(start + 1, versions.size())) {
+            if ("snapshot".equals(version.type())) {
+                chain.add(version.id());
+            }
+        }
+
+        return chain;
+    }
+
+    private int indexOf(VersionIndex index, @Nullable String id) {
+        int position = id != null ? index.indexOf(id) : -1;
+
+        if (position < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Could not find version '" + id + "'");
+        }
+
+        return position;
+    }
+
+    public static final class Selection {
+        @CommandLine.Option(names = "--versions", split = ",", description = "A comma-separated list of versions")
+        public @Nullable List<String> versions;
+
+        @CommandLine.Option(names = "--range", description = "All versions from <from> to <to>, written as <from>..<to>")
+        public @Nullable String range;
+
+        @CommandLine.Option(names = "--snapshots-since", description = "A version and all snapshots released after it")
+        public @Nullable String snapshotsSince;
+    }
+}
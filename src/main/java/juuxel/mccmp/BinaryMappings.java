@@ -0,0 +1,166 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for a single mapping direction, read through a memory-mapped file.
+ *
+ * <p>The file consists of a header ({@code MCMB} and the format version), a string table
+ * (count, followed by length-prefixed UTF-8 strings), and a list of records (count, followed
+ * by records of a kind byte and string table indices or integers).
+ */
+public final class BinaryMappings {
+    private static final int MAGIC = 0x4D434D42; // MCMB
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte CLASS = 0;
+    private static final byte METHOD = 1;
+    private static final byte FIELD = 2;
+    private static final byte METHOD_ARG = 3;
+    private static final byte METHOD_VAR = 4;
+
+    public static void write(IMappingProvider provider, Path path) throws IOException {
+        var collector = new Collector();
+        provider.load(collector);
+
+        Files.createDirectories(path.getParent());
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(collector.strings.size());
+
+            for (String str : collector.strings.keySet()) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(collector.records.size());
+
+            for (int[] record : collector.records) {
+                out.writeByte(record[0]);
+                for (int i = 1; i < record.length; i++) {
+                    out.writeInt(record[i]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static IMappingProvider read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a binary mappings file of version " + FORMAT_VERSION + ": " + path);
+        }
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt();
+            strings[i] = decode(buffer, length);
+        }
+
+        var records = buffer.slice();
+        return out -> {
+            var data = records.duplicate();
+            int count = data.getInt();
+
+            for (int i = 0; i < count; i++) {
+                byte kind = data.get();
+
+                switch (kind) {
+                    case CLASS -> out.acceptClass(strings[data.getInt()], strings[data.getInt()]);
+                    case METHOD -> out.acceptMethod(readMember(data, strings), strings[data.getInt()]);
+                    case FIELD -> out.acceptField(readMember(data, strings), strings[data.getInt()]);
+                    case METHOD_ARG -> out.acceptMethodArg(readMember(data, strings), data.getInt(), strings[data.getInt()]);
+                    case METHOD_VAR -> out.acceptMethodVar(
+                        readMember(data, strings),
+                        data.getInt(),
+                        data.getInt(),
+                        data.getInt(),
+                        strings[data.getInt()]
+                    );
+                    default -> throw new IllegalStateException("Unknown record kind " + kind);
+                }
+            }
+        };
+    }
+
+    private static String decode(ByteBuffer buffer, int length) {
+        var slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    private static IMappingProvider.Member readMember(ByteBuffer data, String[] strings) {
+        return new IMappingProvider.Member(strings[data.getInt()], strings[data.getInt()], strings[data.getInt()]);
+    }
+
+    private static final class Collector implements IMappingProvider.MappingAcceptor {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final List<int[]> records = new ArrayList<>();
+
+        private int string(String str) {
+            return strings.computeIfAbsent(str, s -> strings.size());
+        }
+
+        @Override
+        public void acceptClass(String srcName, String dstName) {
+            records.add(new int[] { CLASS, string(srcName), string(dstName) });
+        }
+
+        @Override
+        public void acceptMethod(IMappingProvider.Member method, String dstName) {
+            records.add(new int[] { METHOD, string(method.owner), string(method.name), string(method.desc), string(dstName) });
+        }
+
+        @Override
+        public void acceptMethodArg(IMappingProvider.Member method, int lvIndex, String dstName) {
+            records.add(new int[] {
+                METHOD_ARG, string(method.owner), string(method.name), string(method.desc), lvIndex, string(dstName)
+            });
+        }
+
+        @Override
+        public void acceptMethodVar(IMappingProvider.Member method, int lvIndex, int startOpIdx, int asmIndex, String dstName) {
+            records.add(new int[] {
+                METHOD_VAR, string(method.owner), string(method.name), string(method.desc), lvIndex, startOpIdx, asmIndex, string(dstName)
+            });
+        }
+
+        @Override
+        public void acceptField(IMappingProvider.Member field, String dstName) {
+            records.add(new int[] { FIELD, string(field.owner), string(field.name), string(field.desc), string(dstName) });
+        }
+    }
+}
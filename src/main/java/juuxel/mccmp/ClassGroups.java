@@ -0,0 +1,203 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Groups the entries of a jar so that each inner class belongs to its outermost class,
+ * and detects which groups differ between two jars.
+ *
+ * <p>A group is identified by the jar path of its outer class file ({@code a/b/C.class}
+ * for {@code a/b/C$D.class}). Non-class files form groups of their own.
+ */
+public final class ClassGroups {
+    private static final String CLASS_SUFFIX = ".class";
+
+    public static String groupOf(String entryName) {
+        if (!entryName.endsWith(CLASS_SUFFIX)) return entryName;
+
+        int slash = entryName.lastIndexOf('/');
+        int dollar = entryName.indexOf('$', slash + 1);
+        return dollar < 0 ? entryName : entryName.substring(0, dollar) + CLASS_SUFFIX;
+    }
+
+    /**
+     * Hashes every group in a jar.
+     *
+     * @param pool the pool used for hashing the entries
+     * @return a map from group names to their SHA-256 digests
+     */
+    public static Map<String, byte[]> hash(Path jar, ForkJoinPool pool) throws IOException {
+        try (var zip = new ZipFile(jar.toFile())) {
+            return combineHashes(pool.submit(() -> zip.stream()
+                .parallel()
+                .filter(entry -> !entry.isDirectory())
+                .collect(Collectors.groupingByConcurrent(
+                    entry -> groupOf(entry.getName()),
+                    Collectors.toConcurrentMap(ZipEntry::getName, entry -> hashEntry(zip, entry))
+                ))
+            ).join());
+        }
+    }
+
+    /**
+     * Hashes every group in a jar held in memory.
+     *
+     * @param pool the pool used for hashing the entries
+     * @return a map from group names to their SHA-256 digests
+     */
+    public static Map<String, byte[]> hash(JarContents jar, ForkJoinPool pool) {
+        return combineHashes(pool.submit(() -> jar.entries()
+            .entrySet()
+            .parallelStream()
+            .collect(Collectors.groupingByConcurrent(
+                entry -> groupOf(entry.getKey()),
+                Collectors.toConcurrentMap(Map.Entry::getKey, entry -> hashEntry(entry.getKey(), entry.getValue()))
+            ))
+        ).join());
+    }
+
+    private static Map<String, byte[]> combineHashes(Map<String, ? extends Map<String, byte[]>> entryHashes) {
+        Map<String, byte[]> result = new HashMap<>();
+        entryHashes.forEach((group, entries) -> {
+            var digest = sha256();
+            // Sort the entries so that the digest doesn't depend on the iteration order
+            new TreeMap<>(entries).values().forEach(digest::update);
+            result.put(group, digest.digest());
+        });
+        return result;
+    }
+
+    /**
+     * Finds the groups that would produce a different output between two jars.
+     * These are the groups that were changed, and the groups that only exist in one of the jars.
+     *
+     * @param a the group hashes of the first jar
+     * @param b the group hashes of the second jar
+     * @return the changes of each jar
+     */
+    public static Pair<Changes, Changes> compare(Map<String, byte[]> a, Map<String, byte[]> b) {
+        return new Pair<>(new Changes(a, changedIn(a, b)), new Changes(b, changedIn(b, a)));
+    }
+
+    private static Set<String> changedIn(Map<String, byte[]> self, Map<String, byte[]> other) {
+        Set<String> result = new HashSet<>();
+        self.forEach((group, hash) -> {
+            if (!Arrays.equals(hash, other.get(group))) {
+                result.add(group);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Splits a jar into two jars: one with the specified groups and one with the rest of the entries.
+     * The split jars are stored uncompressed since they're only read back once.
+     */
+    public static void split(Path jar, Set<String> groups, Path selected, Path rest) throws IOException {
+        split(jar, List.of(groups), List.of(selected), rest);
+    }
+
+    /**
+     * Splits a jar into one jar for each set of groups and one with the rest of the entries, reading the jar once.
+     *
+     * @param groups   disjoint sets of groups
+     * @param selected the jar of each set of groups
+     * @param rest     the jar of the entries that aren't in any of the sets
+     */
+    public static void split(Path jar, List<Set<String>> groups, List<Path> selected, Path rest) throws IOException {
+        Map<String, Integer> outputIndices = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            for (String group : groups.get(i)) {
+                outputIndices.put(group, i);
+            }
+        }
+
+        List<ZipOutputStream> outputs = new ArrayList<>();
+
+        try (var zip = new ZipFile(jar.toFile());
+             var restOut = openUncompressed(rest)) {
+            for (Path path : selected) {
+                outputs.add(openUncompressed(path));
+            }
+
+            var iter = zip.entries().asIterator();
+            while (iter.hasNext()) {
+                var entry = iter.next();
+                if (entry.isDirectory()) continue;
+
+                var index = outputIndices.get(groupOf(entry.getName()));
+                var out = index != null ? outputs.get(index) : restOut;
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        } finally {
+            for (ZipOutputStream out : outputs) {
+                out.close();
+            }
+        }
+    }
+
+    private static ZipOutputStream openUncompressed(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        var zipOut = new ZipOutputStream(out);
+        zipOut.setLevel(Deflater.NO_COMPRESSION);
+        return zipOut;
+    }
+
+    private static byte[] hashEntry(ZipFile zip, ZipEntry entry) {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return hashEntry(entry.getName(), in.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] hashEntry(String name, byte[] contents) {
+        var digest = sha256();
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update(contents);
+        return digest.digest();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public record Changes(Map<String, byte[]> hashes, Set<String> changed) {
+    }
+}
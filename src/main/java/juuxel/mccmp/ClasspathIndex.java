@@ -0,0 +1,115 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Stores the parts of library jars that the remapper needs: classes with their hierarchy
+ * and member declarations, but without method bodies, debug information or resources.
+ *
+ * <p>Each library is indexed at most once per run, and the index is persisted by the library's hash.
+ * The index is written as an uncompressed jar so that it can be read as a regular classpath entry.
+ * The remapper still parses the index on every run, but that only reads the declarations,
+ * and the remapper's classpath can be built from files without a separate hierarchy format.
+ */
+public final class ClasspathIndex {
+    // Increment when the contents of the index change
+    private static final int FORMAT_VERSION = 1;
+    private static final int SKIP_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final Path directory;
+    private final Map<String, CompletableFuture<Path>> entries = new ConcurrentHashMap<>();
+
+    public ClasspathIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets or creates the index of a library jar.
+     *
+     * @param jar  the library jar
+     * @param sha1 the SHA-1 hash of the library if already known, or {@code null} if it needs to be computed
+     * @return a future that completes with the path to the index
+     */
+    public CompletableFuture<Path> get(Path jar, @Nullable String sha1) {
+        var hash = sha1 != null
+            ? CompletableFuture.completedFuture(sha1)
+            : CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Download.sha1(jar);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+        return hash.thenCompose(h -> {
+            var entry = entries.computeIfAbsent(h, key -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return load(jar, key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            return entry.whenComplete((path, throwable) -> {
+                // Don't keep failures around, so that a later request can index the library again
+                if (throwable != null) entries.remove(h, entry);
+            });
+        });
+    }
+
+    private Path load(Path jar, String hash) throws IOException {
+        Path indexPath = directory.resolve("v" + FORMAT_VERSION).resolve(hash + ".jar");
+        if (Files.exists(indexPath)) return indexPath;
+
+        Files.createDirectories(indexPath.getParent());
+        Path tempPath = Files.createTempFile(indexPath.getParent(), hash, ".tmp");
+
+        try (var zip = new ZipFile(jar.toFile());
+             var out = new ZipOutputStream(Files.newOutputStream(tempPath))) {
+            out.setLevel(0);
+            var iter = zip.entries().asIterator();
+
+            while (iter.hasNext()) {
+                var entry = iter.next();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+                byte[] bytes;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    bytes = in.readAllBytes();
+                }
+
+                var writer = new ClassWriter(0);
+                new ClassReader(bytes).accept(writer, SKIP_FLAGS);
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(writer.toByteArray());
+                out.closeEntry();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return indexPath;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed cache of decompiled sources, shared across runs and version pairs.
+ *
+ * <p>Each entry is keyed by the hash of a class group's bytes, the decompiler version and options,
+ * and the library classpath. The last modification time of an entry is its last access time,
+ * which is used for LRU eviction.
+ */
+public final class DecompileCache {
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DecompileCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public static String key(byte[] groupHash, String decompilerFingerprint, String classpathFingerprint) {
+        var digest = ClassGroups.sha256();
+        digest.update(groupHash);
+        digest.update(decompilerFingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(classpathFingerprint.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String fingerprint(List<String> parts) {
+        var digest = ClassGroups.sha256();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public byte @Nullable [] get(String key) throws IOException {
+        var path = getPath(key);
+
+        try {
+            byte[] source = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return source;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] source) throws IOException {
+        var path = getPath(key);
+        Files.createDirectories(path.getParent());
+        var tempPath = Files.createTempFile(path.getParent(), key, ".tmp");
+        Files.write(tempPath, source);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".java");
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits within its maximum size.
+     */
+    public void evict() throws IOException {
+        if (Files.notExists(directory)) return;
+
+        record Entry(Path path, long size, FileTime lastAccess) {
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+
+        try (var paths = Files.walk(directory)) {
+            var iter = paths.filter(Files::isRegularFile).iterator();
+            while (iter.hasNext()) {
+                var path = iter.next();
+                var entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path));
+                entries.add(entry);
+                totalSize += entry.size();
+            }
+        }
+
+        if (totalSize <= maxSize) return;
+        entries.sort(Comparator.comparing(Entry::lastAccess));
+
+        for (Entry entry : entries) {
+            if (totalSize <= maxSize) break;
+            Files.deleteIfExists(entry.path());
+            totalSize -= entry.size();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+}
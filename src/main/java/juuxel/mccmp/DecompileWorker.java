@@ -0,0 +1,268 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Decompiles a jar in forked worker JVMs with a bounded heap.
+ *
+ * <p>The classes are split into shards by package and size, and each shard is decompiled by its own
+ * worker process. A shard whose worker crashes or runs out of memory is retried on its own.
+ */
+public final class DecompileWorker {
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Decompiles groups of a game jar in worker JVMs.
+     *
+     * @param gameJar   the game jar
+     * @param libraries the libraries of the game
+     * @param groups    the groups to decompile
+     * @param workDir   a temporary directory for the shards
+     * @param threads   the total number of decompiler threads, divided between the workers
+     * @param options   the worker options
+     * @param output    receives the name and contents of each source file and copied resource
+     */
+    static void decompileSharded(
+        Path gameJar,
+        List<Path> libraries,
+        Set<String> groups,
+        Path workDir,
+        int threads,
+        Options options,
+        BiConsumer<String, byte[]> output
+    ) throws IOException {
+        List<Set<String>> shards;
+        try (var zip = new ZipFile(gameJar.toFile())) {
+            shards = shard(zip, groups, options.maxShardSize());
+        }
+
+        int workers = Math.max(1, Math.min(options.workers(), shards.size()));
+        int workerThreads = Math.max(1, threads / workers);
+        System.out.println(":decompiling " + shards.size() + " shards in " + workers + " workers");
+
+        // Each class is written once: the other shards and the classes that aren't decompiled are the context of a shard
+        List<Path> shardJars = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            shardJars.add(workDir.resolve("shard-" + i + ".jar"));
+        }
+        Path contextJar = workDir.resolve("context.jar");
+        Files.createDirectories(workDir);
+        ClassGroups.split(gameJar, shards, shardJars, contextJar);
+
+        try (var executor = Executors.newFixedThreadPool(workers)) {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int i = 0; i < shards.size(); i++) {
+                var selectedJar = shardJars.get(i);
+                List<Path> classpath = new ArrayList<>(shardJars);
+                classpath.remove(i);
+                classpath.add(contextJar);
+                classpath.addAll(libraries);
+                var shardDir = workDir.resolve("shard-" + i);
+                futures.add(executor.submit(() -> {
+                    runShard(selectedJar, classpath, shardDir, workerThreads, options, output);
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                // Stop the remaining workers, since the result would be incomplete anyway
+                executor.shutdownNow();
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompiling", e);
+            }
+        }
+    }
+
+    /**
+     * Splits groups into shards. Groups of the same package are kept in the same shard when possible,
+     * and packages are added to a shard until it reaches the maximum size. Packages that are larger
+     * than the maximum are split into multiple shards.
+     */
+    static List<Set<String>> shard(ZipFile zip, Set<String> groups, long maxShardSize) {
+        Map<String, Long> groupSizes = new TreeMap<>();
+        var iter = zip.entries().asIterator();
+        while (iter.hasNext()) {
+            var entry = iter.next();
+            var group = ClassGroups.groupOf(entry.getName());
+
+            if (groups.contains(group)) {
+                groupSizes.merge(group, Math.max(entry.getSize(), 0), Long::sum);
+            }
+        }
+
+        // Sorted by name so that neighbouring packages end up in the same shard
+        Map<String, Map<String, Long>> packages = new TreeMap<>();
+        groupSizes.forEach((group, size) -> {
+            int slash = group.lastIndexOf('/');
+            var pkg = slash >= 0 ? group.substring(0, slash) : "";
+            packages.computeIfAbsent(pkg, p -> new TreeMap<>()).put(group, size);
+        });
+
+        List<Set<String>> shards = new ArrayList<>();
+        Set<String> current = new HashSet<>();
+        long currentSize = 0;
+
+        for (Map<String, Long> pkg : packages.values()) {
+            long packageSize = pkg.values().stream().mapToLong(Long::longValue).sum();
+
+            if (!current.isEmpty() && currentSize + packageSize > maxShardSize) {
+                shards.add(current);
+                current = new HashSet<>();
+                currentSize = 0;
+            }
+
+            for (var group : pkg.entrySet()) {
+                if (!current.isEmpty() && currentSize + group.getValue() > maxShardSize) {
+                    shards.add(current);
+                    current = new HashSet<>();
+                    currentSize = 0;
+                }
+
+                current.add(group.getKey());
+                currentSize += group.getValue();
+            }
+        }
+
+        if (!current.isEmpty()) {
+            shards.add(current);
+        }
+
+        return Collections.unmodifiableList(shards);
+    }
+
+    private static void runShard(
+        Path selectedJar,
+        List<Path> classpath,
+        Path shardDir,
+        int threads,
+        Options options,
+        BiConsumer<String, byte[]> output
+    ) throws IOException, InterruptedException {
+        Files.createDirectories(shardDir);
+        Path outputJar = shardDir.resolve("output.jar");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + options.maxHeap());
+        // Make sure that running out of memory fails the shard instead of leaving out some classes
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DecompileWorker.class.getName());
+        command.add(String.valueOf(threads));
+        command.add(outputJar.toAbsolutePath().toString());
+        command.add(selectedJar.toAbsolutePath().toString());
+        classpath.forEach(jar -> command.add(jar.toAbsolutePath().toString()));
+
+        for (int attempt = 1; ; attempt++) {
+            Files.deleteIfExists(outputJar);
+            var process = new ProcessBuilder(command).inheritIO().start();
+            int exitCode;
+
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+
+            if (exitCode == 0) break;
+
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IOException("Decompiling " + shardDir.getFileName() + " failed with exit code " + exitCode);
+            }
+
+            System.out.println(":retrying " + shardDir.getFileName() + " after exit code " + exitCode);
+        }
+
+        // Only merged once the whole shard has succeeded, so that retries can't produce duplicate entries
+        try (var zip = new ZipFile(outputJar.toFile())) {
+            var iter = zip.entries().asIterator();
+            while (iter.hasNext()) {
+                var entry = iter.next();
+                if (entry.isDirectory()) continue;
+
+                try (InputStream in = zip.getInputStream(entry)) {
+                    output.accept(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     * The entry point of a worker process.
+     *
+     * <p>Arguments: {@code <threads> <output jar> <source jar> [classpath jars...]}
+     */
+    public static void main(String[] args) {
+        try {
+            int threads = Integer.parseInt(args[0]);
+            Path outputJar = Path.of(args[1]);
+            Path sourceJar = Path.of(args[2]);
+            List<Path> classpath = new ArrayList<>();
+            for (int i = 3; i < args.length; i++) {
+                classpath.add(Path.of(args[i]));
+            }
+
+            try (var out = new ZipOutputStream(Files.newOutputStream(outputJar))) {
+                Decompiler.runFernflower(sourceJar, classpath, threads, (name, bytes) -> {
+                    synchronized (out) {
+                        try {
+                            out.putNextEntry(new ZipEntry(name));
+                            out.write(bytes);
+                            out.closeEntry();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @param workers      the maximum number of concurrently running worker JVMs
+     * @param maxHeap      the maximum heap size of each worker, in the format of {@code -Xmx}
+     * @param maxShardSize the maximum size of the class files in a shard in bytes
+     */
+    public record Options(int workers, String maxHeap, long maxShardSize) {
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.java.decompiler.main.Fernflower;
+import org.jetbrains.java.decompiler.main.decompiler.PrintStreamLogger;
+import org.jetbrains.java.decompiler.main.extern.IContextSource;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
+import org.jetbrains.java.decompiler.main.extern.IResultSaver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public final class Decompiler {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String DECOMPILER_VERSION = ToolVersions.of("vineflower") + "+" + ToolVersions.hash(Decompiler.class);
+    private static final Map<String, Object> OPTIONS = Map.of();
+
+    private final DecompileCache cache;
+    private final DecompileWorker.@Nullable Options workers;
+
+    public Decompiler(DecompileCache cache) {
+        this(cache, null);
+    }
+
+    /**
+     * @param cache   the decompilation cache
+     * @param workers the options for decompiling in forked worker JVMs, or {@code null} to decompile in this JVM
+     */
+    public Decompiler(DecompileCache cache, DecompileWorker.@Nullable Options workers) {
+        this.cache = cache;
+        this.workers = workers;
+    }
+
+    /**
+     * Decompiles the changed groups of a game jar into a source jar.
+     * Sources of classes that have been decompiled before are taken from the cache.
+     *
+     * @param librarySha1s the SHA-1 hashes of the libraries, which identify the classpath in the cache keys
+     */
+    public void decompile(String id, Path gameJar, List<Path> libraries, List<String> librarySha1s, ClassGroups.Changes changes, Path sourcePath, int threads) throws IOException {
+        decompile(id, librarySha1s, changes, sourcePath, (groups, workDir, output) -> {
+            if (workers != null) {
+                DecompileWorker.decompileSharded(gameJar, libraries, groups, workDir, threads, workers, output);
+            } else {
+                runDecompiler(gameJar, libraries, groups, workDir, threads, output);
+            }
+        });
+    }
+
+    /**
+     * Decompiles the changed groups of a game jar held in memory into a source jar.
+     * The classes are passed to the decompiler directly, without writing them to a jar.
+     *
+     * @param librarySha1s the SHA-1 hashes of the libraries, which identify the classpath in the cache keys
+     */
+    public void decompile(String id, JarContents gameJar, List<Path> libraries, List<String> librarySha1s, ClassGroups.Changes changes, Path sourcePath, int threads) throws IOException {
+        decompile(id, librarySha1s, changes, sourcePath, (groups, workDir, output) -> {
+            if (workers != null) {
+                // The worker JVMs read their classes from a jar
+                Path jar = workDir.resolve("game.jar");
+                gameJar.write(jar);
+                DecompileWorker.decompileSharded(jar, libraries, groups, workDir, threads, workers, output);
+            } else {
+                // Only the selected classes are decompiled, and the rest are kept on the classpath
+                JarContents selected = gameJar.filter(name -> groups.contains(ClassGroups.groupOf(name)));
+                JarContents context = gameJar.filter(name -> !groups.contains(ClassGroups.groupOf(name)));
+                runFernflower(selected, context, libraries, threads, output);
+            }
+        });
+    }
+
+    private void decompile(String id, List<String> librarySha1s, ClassGroups.Changes changes, Path sourcePath, DecompileRunner runner) throws IOException {
+        List<String> decompilerFingerprint = new ArrayList<>();
+        decompilerFingerprint.add(DECOMPILER_VERSION);
+        OPTIONS.forEach((key, value) -> decompilerFingerprint.add(key + "=" + value));
+        // The contents of the libraries matter, since a library can be republished under the same name
+        String classpathFingerprint = DecompileCache.fingerprint(
+            librarySha1s.stream().map(sha1 -> sha1.toLowerCase(Locale.ROOT)).sorted().toList()
+        );
+        String decompilerFingerprintStr = DecompileCache.fingerprint(decompilerFingerprint);
+
+        List<String> changedGroups = new ArrayList<>();
+        for (String group : new TreeSet<>(changes.changed())) {
+            changedGroups.add(group + '=' + HexFormat.of().formatHex(changes.hashes().get(group)));
+        }
+
+        var manifest = new StageManifest("decompile", sourcePath)
+            .input("groups", DecompileCache.fingerprint(changedGroups))
+            .input("decompiler", decompilerFingerprintStr)
+            .input("classpath", classpathFingerprint);
+
+        if (manifest.isUpToDate()) {
+            System.out.println(":decompiled sources of " + id + " are up to date");
+            return;
+        }
+
+        manifest.invalidate();
+        Files.createDirectories(sourcePath.getParent());
+        Files.deleteIfExists(sourcePath);
+
+        Map<String, byte[]> cachedSources = new HashMap<>();
+        Map<String, String> missedKeys = new HashMap<>();
+        Set<String> toDecompile = new HashSet<>();
+
+        for (String group : changes.changed()) {
+            if (!group.endsWith(CLASS_SUFFIX)) {
+                // Resources are copied to the output by the decompiler
+                toDecompile.add(group);
+                continue;
+            }
+
+            var key = DecompileCache.key(changes.hashes().get(group), decompilerFingerprintStr, classpathFingerprint);
+            var sourceName = getSourceName(group);
+            byte[] source = cache.get(key);
+
+            if (source != null) {
+                cachedSources.put(sourceName, source);
+            } else {
+                toDecompile.add(group);
+                missedKeys.put(sourceName, key);
+            }
+        }
+
+        System.out.println(":decompiling " + id + " (" + changes.changed().size() + " changed files, " + cachedSources.size() + " cached)");
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(sourcePath))) {
+            for (var entry : cachedSources.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+
+            if (!toDecompile.isEmpty()) {
+                Path workDir = Files.createTempDirectory(sourcePath.getParent(), "decompile-");
+
+                try {
+                    BiConsumer<String, byte[]> output = (name, bytes) -> {
+                        if (name.endsWith(".java")) {
+                            Metrics.Counter.CLASSES_DECOMPILED.add(1);
+                        }
+
+                        try {
+                            synchronized (out) {
+                                out.putNextEntry(new ZipEntry(name));
+                                out.write(bytes);
+                                out.closeEntry();
+                            }
+
+                            var key = missedKeys.get(name);
+                            if (key != null) {
+                                cache.put(key, bytes);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    };
+
+                    runner.run(toDecompile, workDir, output);
+                } finally {
+                    MoreFiles.deleteRecursively(workDir);
+                }
+            }
+        }
+
+        manifest.commit();
+    }
+
+    private static void runDecompiler(Path gameJar, List<Path> libraries, Set<String> groups, Path workDir, int threads, BiConsumer<String, byte[]> output) throws IOException {
+        // Only the selected classes are decompiled. The rest of the game jar is kept on the classpath
+        // so that the decompiler can still resolve them.
+        Path selectedJar = workDir.resolve("selected.jar");
+        Path contextJar = workDir.resolve("context.jar");
+        ClassGroups.split(gameJar, groups, selectedJar, contextJar);
+
+        List<Path> classpath = new ArrayList<>(libraries);
+        classpath.add(contextJar);
+        runFernflower(selectedJar, classpath, threads, output);
+    }
+
+    /**
+     * Decompiles every class in a jar.
+     *
+     * @param sourceJar the jar to decompile
+     * @param classpath the libraries used for resolving the classes
+     * @param threads   the number of decompiler threads
+     * @param output    receives the name and contents of each source file and copied resource
+     */
+    static void runFernflower(Path sourceJar, List<Path> classpath, int threads, BiConsumer<String, byte[]> output) throws IOException {
+        try (var source = new ZipFile(sourceJar.toFile())) {
+            // The output is passed on directly instead of writing it to a jar and reading it back
+            var fernflower = new Fernflower(new OutputSaver(name -> readEntry(source, name), output), options(threads), new TimingLogger());
+
+            try {
+                for (Path library : classpath) {
+                    fernflower.addLibrary(library.toFile());
+                }
+
+                fernflower.addSource(sourceJar.toFile());
+                fernflower.decompileContext();
+            } finally {
+                fernflower.clearContext();
+            }
+        }
+    }
+
+    /**
+     * Decompiles every class in a jar held in memory.
+     *
+     * @param source    the classes to decompile
+     * @param context   the other classes of the game, used for resolving the decompiled classes
+     * @param libraries the libraries used for resolving the classes
+     * @param threads   the number of decompiler threads
+     * @param output    receives the name and contents of each source file and copied resource
+     */
+    static void runFernflower(JarContents source, JarContents context, List<Path> libraries, int threads, BiConsumer<String, byte[]> output) {
+        var fernflower = new Fernflower(new OutputSaver(source::get, output), options(threads), new TimingLogger());
+
+        try {
+            for (Path library : libraries) {
+                fernflower.addLibrary(library.toFile());
+            }
+
+            fernflower.addLibrary(new MemorySource("context", context));
+            fernflower.addSource(new MemorySource("selected", source));
+            fernflower.decompileContext();
+        } finally {
+            fernflower.clearContext();
+        }
+    }
+
+    private static Map<String, Object> options(int threads) {
+        Map<String, Object> options = new HashMap<>(OPTIONS);
+        options.put(IFernflowerPreferences.THREADS, String.valueOf(threads));
+        return options;
+    }
+
+    private static byte @Nullable [] readEntry(ZipFile zip, String name) {
+        var entry = zip.getEntry(name);
+        if (entry == null) return null;
+
+        try (InputStream in = zip.getInputStream(entry)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String getSourceName(String classGroup) {
+        return classGroup.substring(0, classGroup.length() - CLASS_SUFFIX.length()) + ".java";
+    }
+
+    /**
+     * Passes the decompiled sources and copied resources of the source jar to a consumer.
+     */
+    private record OutputSaver(Function<String, byte @Nullable []> resources, BiConsumer<String, byte[]> output) implements IResultSaver {
+        @Override
+        public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content) {
+            if (content == null) return;
+            output.accept(entryName, content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void copyEntry(String source, String path, String archiveName, String entry) {
+            byte[] bytes = resources.apply(entry);
+            if (bytes != null) output.accept(entry, bytes);
+        }
+
+        // The input is always a single jar, so the other methods aren't needed
+
+        @Override
+        public void saveFolder(String path) {
+        }
+
+        @Override
+        public void copyFile(String source, String path, String entryName) {
+        }
+
+        @Override
+        public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
+        }
+
+        @Override
+        public void createArchive(String path, String archiveName, Manifest manifest) {
+        }
+
+        @Override
+        public void saveDirEntry(String path, String archiveName, String entryName) {
+        }
+
+        @Override
+        public void closeArchive(String path, String archiveName) {
+        }
+    }
+
+    /**
+     * A decompiler input backed by a jar held in memory. Its output is passed to the result saver
+     * like the output of a single source jar.
+     */
+    private record MemorySource(String name, JarContents jar) implements IContextSource {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Entries getEntries() {
+            List<Entry> classes = new ArrayList<>();
+            List<Entry> others = new ArrayList<>();
+
+            for (String entry : jar.names()) {
+                if (entry.endsWith(CLASS_SUFFIX)) {
+                    classes.add(Entry.atBase(entry.substring(0, entry.length() - CLASS_SUFFIX.length())));
+                } else {
+                    others.add(Entry.atBase(entry));
+                }
+            }
+
+            return new Entries(classes, List.of(), others);
+        }
+
+        @Override
+        public @Nullable InputStream getInputStream(String resource) {
+            byte[] bytes = jar.get(resource);
+            return bytes != null ? new ByteArrayInputStream(bytes) : null;
+        }
+
+        @Override
+        public IOutputSink createOutputSink(IResultSaver saver) {
+            return new IOutputSink() {
+                @Override
+                public void begin() {
+                }
+
+                @Override
+                public void acceptClass(String qualifiedName, String fileName, String content, int[] mapping) {
+                    saver.saveClassEntry("", name, qualifiedName, fileName, content);
+                }
+
+                @Override
+                public void acceptDirectory(String directory) {
+                }
+
+                @Override
+                public void acceptOther(String path) {
+                    saver.copyEntry(name, "", name, path);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @FunctionalInterface
+    private interface DecompileRunner {
+        void run(Set<String> groups, Path workDir, BiConsumer<String, byte[]> output) throws IOException;
+    }
+
+    /**
+     * Records how long each class takes to decompile, as a JFR event and in the run metrics.
+     * Classes are decompiled in parallel, so the current class is tracked per thread.
+     */
+    private static final class TimingLogger extends PrintStreamLogger {
+        private final ThreadLocal<ClassTiming> currentClass = new ThreadLocal<>();
+
+        TimingLogger() {
+            super(System.out);
+        }
+
+        @Override
+        public void startClass(String className) {
+            super.startClass(className);
+            var event = new Metrics.DecompileClassEvent();
+            event.className = className;
+            event.begin();
+            currentClass.set(new ClassTiming(event, System.nanoTime()));
+        }
+
+        @Override
+        public void endClass() {
+            super.endClass();
+            var timing = currentClass.get();
+
+            if (timing != null) {
+                currentClass.remove();
+                Metrics.recordDecompileTime(System.nanoTime() - timing.start());
+                timing.event().commit();
+            }
+        }
+
+        private record ClassTiming(Metrics.DecompileClassEvent event, long start) {
+        }
+    }
+}
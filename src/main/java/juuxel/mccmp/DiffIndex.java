@@ -0,0 +1,303 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compact index of a finished diff, which lists the patch of each file without reading the diff directory.
+ *
+ * <p>The patches are concatenated into a single blob next to the index. The index file is memory-mapped
+ * and consists of a header, fixed-size entries sorted by path and a table of the UTF-8 encoded paths.
+ * Each entry stores the offsets of its paths in the table, the change kind, the line counts
+ * and the position of the patch in the blob:
+ *
+ * <pre>
+ * header: magic (int), format version (int), entry count (int), reserved (int)
+ * entry:  path offset (int), path length (int), renamed from offset (int), renamed from length (int, -1 if not renamed),
+ *         kind (int), added lines (int), removed lines (int), patch length (int), patch offset (long)
+ * </pre>
+ */
+public final class DiffIndex implements AutoCloseable {
+    private static final int MAGIC = 0x6D63_6469; // "mcdi"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 40;
+
+    private final FileChannel index;
+    private final MappedByteBuffer buffer;
+    private final Path blobPath;
+    private final int size;
+    private @Nullable FileChannel blob;
+
+    private DiffIndex(FileChannel index, MappedByteBuffer buffer, Path blobPath) throws IOException {
+        this.index = index;
+        this.buffer = buffer;
+        this.blobPath = blobPath;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a diff index or an unsupported format version");
+        }
+
+        this.size = buffer.getInt(8);
+    }
+
+    public static DiffIndex open(Path indexPath) throws IOException {
+        var channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+
+        try {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DiffIndex(channel, buffer, blobPath(indexPath));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@return the path of the patch blob of an index}
+     */
+    public static Path blobPath(Path indexPath) {
+        var name = indexPath.getFileName().toString();
+        var baseName = name.endsWith(".index") ? name.substring(0, name.length() - ".index".length()) : name;
+        return indexPath.resolveSibling(baseName + ".patches");
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the files in a package and its subpackages with the given kinds of changes.
+     *
+     * @param packageName the package, such as {@code net.minecraft.world}, or {@code null} for all files
+     * @param kinds       the kinds of changes to include, or an empty set for all kinds
+     * @return the matching entries sorted by path
+     */
+    public List<Entry> query(@Nullable String packageName, Set<SourceDiff.ChangeKind> kinds) {
+        String prefix = packageName != null && !packageName.isEmpty() ? packageName.replace('.', '/') + '/' : "";
+        List<Entry> result = new ArrayList<>();
+
+        for (int i = lowerBound(prefix); i < size; i++) {
+            String path = path(i);
+            if (!path.startsWith(prefix)) break;
+
+            var kind = kind(i);
+            if (kinds.isEmpty() || kinds.contains(kind)) {
+                result.add(entry(i, path, kind));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the patch of an entry from the patch blob.
+     */
+    public String readPatch(Entry entry) throws IOException {
+        if (blob == null) {
+            blob = FileChannel.open(blobPath, StandardOpenOption.READ);
+        }
+
+        var bytes = ByteBuffer.allocate(entry.patchLength());
+        while (bytes.hasRemaining()) {
+            if (blob.read(bytes, entry.patchOffset() + bytes.position()) < 0) {
+                throw new IOException("Patch blob is shorter than expected: " + blobPath);
+            }
+        }
+
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    // Binary search for the first path that isn't smaller than the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (path(mid).compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int entryOffset(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    private String path(int i) {
+        int offset = entryOffset(i);
+        return string(buffer.getInt(offset), buffer.getInt(offset + 4));
+    }
+
+    private SourceDiff.ChangeKind kind(int i) {
+        return SourceDiff.ChangeKind.values()[buffer.getInt(entryOffset(i) + 16)];
+    }
+
+    private Entry entry(int i, String path, SourceDiff.ChangeKind kind) {
+        int offset = entryOffset(i);
+        int renamedFromLength = buffer.getInt(offset + 12);
+
+        return new Entry(
+            path,
+            renamedFromLength >= 0 ? string(buffer.getInt(offset + 8), renamedFromLength) : null,
+            kind,
+            buffer.getInt(offset + 20),
+            buffer.getInt(offset + 24),
+            buffer.getLong(offset + 32),
+            buffer.getInt(offset + 28)
+        );
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (index) {
+            if (blob != null) blob.close();
+        }
+    }
+
+    /**
+     * @param path         the path of the file, which is the new path of a renamed file
+     * @param renamedFrom  the old path of a renamed file, or {@code null} for other files
+     * @param kind         the kind of the change
+     * @param addedLines   the number of added lines
+     * @param removedLines the number of removed lines
+     * @param patchOffset  the position of the patch in the patch blob
+     * @param patchLength  the length of the patch in bytes
+     */
+    public record Entry(
+        String path,
+        @Nullable String renamedFrom,
+        SourceDiff.ChangeKind kind,
+        int addedLines,
+        int removedLines,
+        long patchOffset,
+        int patchLength
+    ) {
+    }
+
+    /**
+     * Writes an index and its patch blob. The patches can be added from multiple threads in any order.
+     * Both files are written to temporary files that are moved into place by {@link #finish()},
+     * and closing an unfinished writer discards them.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final Path indexPath;
+        private final Path blobPath;
+        private final Path blobTemp;
+        private final OutputStream blob;
+        private final List<Entry> entries = new ArrayList<>();
+        private long blobSize;
+        private boolean finished;
+
+        public Writer(Path indexPath) throws IOException {
+            this.indexPath = indexPath;
+            this.blobPath = blobPath(indexPath);
+            Files.createDirectories(indexPath.getParent());
+            this.blobTemp = Files.createTempFile(indexPath.getParent(), blobPath.getFileName().toString(), ".tmp");
+            this.blob = new BufferedOutputStream(Files.newOutputStream(blobTemp));
+        }
+
+        public synchronized void add(SourceDiff.FilePatch patch, byte[] text) throws IOException {
+            blob.write(text);
+            entries.add(new Entry(patch.path(), patch.renamedFrom(), patch.kind(), patch.addedLines(), patch.removedLines(), blobSize, text.length));
+            blobSize += text.length;
+        }
+
+        public synchronized void finish() throws IOException {
+            blob.close();
+            finished = true;
+            entries.sort(Comparator.comparing(Entry::path));
+
+            var strings = new ByteArrayOutputStream();
+            int stringsStart = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+            Path indexTemp = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexTemp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(entries.size());
+                    out.writeInt(0);
+
+                    for (Entry entry : entries) {
+                        byte[] path = entry.path().getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(stringsStart + strings.size());
+                        out.writeInt(path.length);
+                        strings.write(path, 0, path.length);
+
+                        if (entry.renamedFrom() != null) {
+                            byte[] renamedFrom = entry.renamedFrom().getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(stringsStart + strings.size());
+                            out.writeInt(renamedFrom.length);
+                            strings.write(renamedFrom, 0, renamedFrom.length);
+                        } else {
+                            out.writeInt(0);
+                            out.writeInt(-1);
+                        }
+
+                        out.writeInt(entry.kind().ordinal());
+                        out.writeInt(entry.addedLines());
+                        out.writeInt(entry.removedLines());
+                        out.writeInt(entry.patchLength());
+                        out.writeLong(entry.patchOffset());
+                    }
+
+                    strings.writeTo(out);
+                }
+
+                // Move the blob first, so that an index never refers to a stale blob
+                Files.move(blobTemp, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTemp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(indexTemp);
+                Files.deleteIfExists(blobTemp);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!finished) {
+                try {
+                    blob.close();
+                } finally {
+                    Files.deleteIfExists(blobTemp);
+                }
+            }
+        }
+    }
+}
@@ -8,27 +8,47 @@ package juuxel.mccmp;
 
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
+import juuxel.mccmp.data.DataAdapters;
+import okio.Okio;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public final class Download {
-    static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(16);
+    static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    // HTTP/2 multiplexes the requests to a host over one connection
     private static final HttpClient CLIENT = HttpClient.newBuilder()
         .executor(EXECUTOR)
+        .version(HttpClient.Version.HTTP_2)
         .build();
-    private static final Moshi MOSHI = new Moshi.Builder().build();
+    private static final DownloadQueue QUEUE = new DownloadQueue(32, 8);
+    // Shared by everything that reads or writes JSON
+    static final Moshi MOSHI = new Moshi.Builder().add(DataAdapters.FACTORY).build();
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_RETRY_DELAY_MS = 500;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static volatile @Nullable MetadataCache metadataCache;
+    private static volatile boolean offline;
 
     public static <T> CompletableFuture<HttpResponse<T>> download(String url, HttpResponse.BodyHandler<T> bodyHandler) {
         var request = HttpRequest.newBuilder()
@@ -36,33 +56,321 @@ public final class Download {
             .uri(URI.create(url))
             .build();
         System.out.println(":downloading " + url);
-        return CLIENT.sendAsync(request, bodyHandler);
+        return QUEUE.submit(request.uri(), Priority.CRITICAL, () -> CLIENT.sendAsync(request, bodyHandler));
+    }
+
+    /**
+     * Checks that a URL exists with a {@code HEAD} request, without downloading its body.
+     *
+     * @return a future that completes when the server has responded with 200,
+     * or fails with a {@link StatusCodeException} for other status codes;
+     * cancelling it cancels the request
+     */
+    public static CompletableFuture<Void> head(String url, Priority priority) {
+        if (offline) return CompletableFuture.failedFuture(new OfflineException(url));
+
+        var request = HttpRequest.newBuilder()
+            .method("HEAD", HttpRequest.BodyPublishers.noBody())
+            .uri(URI.create(url))
+            .build();
+        System.out.println(":probing " + url);
+        var response = QUEUE.submit(request.uri(), priority, () -> CLIENT.sendAsync(request, checkStatus(HttpResponse.BodySubscribers::discarding)));
+        return Futures.forwardCancellation(response.thenApply(unused -> null), response);
+    }
+
+    public static void setMetadataCache(@Nullable MetadataCache metadataCache) {
+        Download.metadataCache = metadataCache;
+    }
+
+    public static void setOffline(boolean offline) {
+        Download.offline = offline;
     }
 
     public static <T> CompletableFuture<T> json(String url, Class<T> clazz) {
-        return json(url, moshi -> moshi.adapter(clazz));
+        return json(url, clazz, CachePolicy.REVALIDATE);
+    }
+
+    public static <T> CompletableFuture<T> json(String url, Class<T> clazz, CachePolicy cachePolicy) {
+        return json(url, cachePolicy, moshi -> moshi.adapter(clazz));
     }
 
     public static <T> CompletableFuture<T> json(String url, TypeToken<T> type) {
-        return json(url, moshi -> moshi.adapter(type.type()));
+        return json(url, type, CachePolicy.REVALIDATE);
     }
 
-    private static <T> CompletableFuture<T> json(String url, Function<Moshi, JsonAdapter<T>> adapterGetter) {
-        return download(url, checkStatus(() -> HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8)))
+    public static <T> CompletableFuture<T> json(String url, TypeToken<T> type, CachePolicy cachePolicy) {
+        return json(url, cachePolicy, moshi -> moshi.adapter(type.type()));
+    }
+
+    /**
+     * Parses a JSON response while it's being received, without buffering it as a string first.
+     * Cached responses are streamed to the metadata cache and parsed from there.
+     */
+    private static <T> CompletableFuture<T> json(String url, CachePolicy cachePolicy, Function<Moshi, JsonAdapter<T>> adapterGetter) {
+        var adapter = adapterGetter.apply(MOSHI);
+        var cache = metadataCache;
+
+        if (cache == null) {
+            if (offline) return CompletableFuture.failedFuture(new OfflineException(url));
+            return download(url, checkStatus(HttpResponse.BodySubscribers::ofInputStream))
+                .thenApplyAsync(response -> {
+                    try (var source = Okio.buffer(Okio.source(response.body()))) {
+                        T result = adapter.fromJson(source);
+                        Metrics.recordDownload(url, true, response.headers().firstValueAsLong("Content-Length").orElse(0), false);
+                        return result;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, EXECUTOR);
+        }
+
+        MetadataCache.Entry cached;
+        try {
+            cached = cache.read(url);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        if (cached != null && (offline || cachePolicy == CachePolicy.IMMUTABLE)) {
+            Metrics.recordDownload(url, true, 0, true);
+            return CompletableFuture.supplyAsync(() -> readJson(cached.body(), adapter), EXECUTOR);
+        } else if (offline) {
+            return CompletableFuture.failedFuture(new OfflineException(url));
+        }
+
+        var request = HttpRequest.newBuilder()
+            .GET()
+            .uri(URI.create(url));
+
+        if (cached != null) {
+            if (cached.etag() != null) request.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) request.header("If-Modified-Since", cached.lastModified());
+        }
+
+        Path bodyTemp;
+        try {
+            bodyTemp = cache.createTempFile(url);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        System.out.println(":downloading " + url);
+        HttpResponse.BodyHandler<Path> bodyHandler = responseInfo -> switch (responseInfo.statusCode()) {
+            case 200 -> HttpResponse.BodySubscribers.ofFile(bodyTemp);
+            case 304 -> HttpResponse.BodySubscribers.replacing(bodyTemp);
+            default -> throw new StatusCodeException(responseInfo.statusCode());
+        };
+
+        var builtRequest = request.build();
+        return QUEUE.submit(builtRequest.uri(), Priority.CRITICAL, () -> CLIENT.sendAsync(builtRequest, bodyHandler))
             .thenApply(response -> {
                 try {
-                    return adapterGetter.apply(MOSHI).fromJson(response.body());
+                    if (response.statusCode() == 304 && cached != null) {
+                        Files.delete(bodyTemp);
+                        Metrics.recordDownload(url, true, 0, true);
+                        return readJson(cached.body(), adapter);
+                    }
+
+                    Metrics.recordDownload(url, true, Files.size(bodyTemp), false);
+
+                    var headers = response.headers();
+                    var entry = cache.write(
+                        url,
+                        bodyTemp,
+                        headers.firstValue("ETag").orElse(null),
+                        headers.firstValue("Last-Modified").orElse(null)
+                    );
+                    return readJson(entry.body(), adapter);
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    throw new UncheckedIOException(e);
                 }
+            })
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) deleteTempFile(bodyTemp);
             });
     }
 
+    private static <T> T readJson(Path path, JsonAdapter<T> adapter) {
+        try (var source = Okio.buffer(Okio.source(path))) {
+            return adapter.fromJson(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static CompletableFuture<Path> file(Path path, String url) {
-        if (Files.exists(path)) return CompletableFuture.completedFuture(path);
+        return file(path, url, null, null);
+    }
+
+    public static CompletableFuture<Path> file(Path path, String url, @Nullable String sha1, @Nullable Long size) {
+        return file(path, url, sha1, size, Priority.LIBRARY);
+    }
+
+    /**
+     * Downloads a file if it doesn't exist or doesn't match the expected hash and size.
+     * The file is first downloaded to a temporary {@code .part} file, which is resumed using
+     * range requests if a previous download was interrupted. Once the download has been verified,
+     * it's atomically moved to the target path.
+     *
+     * @param path     the target path
+     * @param url      the URL to download
+     * @param sha1     the expected SHA-1 hash of the file, or {@code null} if unknown
+     * @param size     the expected size of the file, or {@code null} if unknown
+     * @param priority the priority of the download
+     * @return a future that completes with the target path
+     */
+    public static CompletableFuture<Path> file(Path path, String url, @Nullable String sha1, @Nullable Long size, Priority priority) {
+        // Hashing large files takes a while, so existing files are verified in parallel
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (Files.exists(path)) {
+                    if (isValid(path, sha1, size)) {
+                        Metrics.recordDownload(url, false, 0, true);
+                        return true;
+                    }
+
+                    System.out.println(":found corrupted file " + path);
+                    Files.delete(path);
+                }
+
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR).thenCompose(valid -> {
+            if (valid) {
+                return CompletableFuture.completedFuture(path);
+            } else if (offline) {
+                return CompletableFuture.failedFuture(new OfflineException(url));
+            }
+
+            return file(path, url, sha1, size, priority, 1);
+        });
+    }
+
+    private static CompletableFuture<Path> file(Path path, String url, @Nullable String sha1, @Nullable Long size, Priority priority, int attempt) {
+        return tryDownloadFile(path, url, sha1, size, priority).exceptionallyCompose(throwable -> {
+            if (attempt >= MAX_ATTEMPTS || Futures.getCauseChain(throwable).noneMatch(Download::isRetryable)) {
+                return CompletableFuture.failedFuture(throwable);
+            }
+
+            long delay = INITIAL_RETRY_DELAY_MS << (attempt - 1);
+            System.out.println(":retrying " + url + " in " + delay + " ms");
+            var delayedExecutor = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, EXECUTOR);
+            return CompletableFuture.supplyAsync(() -> null, delayedExecutor)
+                .thenCompose(unused -> file(path, url, sha1, size, priority, attempt + 1));
+        });
+    }
+
+    private static CompletableFuture<Path> tryDownloadFile(Path path, String url, @Nullable String sha1, @Nullable Long size, Priority priority) {
+        Path partPath = path.resolveSibling(path.getFileName() + ".part");
+        long offset;
+
+        try {
+            offset = Files.exists(partPath) ? Files.size(partPath) : 0;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var request = HttpRequest.newBuilder()
+            .GET()
+            .uri(URI.create(url));
+
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+            System.out.println(":resuming " + url + " from byte " + offset);
+        } else {
+            System.out.println(":downloading " + url);
+        }
+
+        var builtRequest = request.build();
+        return QUEUE.submit(builtRequest.uri(), priority, () -> CLIENT.sendAsync(builtRequest, partialFile(partPath, offset)))
+            .thenApply(response -> {
+                try {
+                    if (!isValid(partPath, sha1, size)) {
+                        Files.delete(partPath);
+                        throw new VerificationException(url);
+                    }
+
+                    long transferred = Files.size(partPath) - offset;
+                    Files.move(partPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Metrics.recordDownload(url, false, transferred, false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return path;
+            });
+    }
+
+    private static HttpResponse.BodyHandler<Path> partialFile(Path partPath, long offset) {
+        return responseInfo -> switch (responseInfo.statusCode()) {
+            case 200 -> HttpResponse.BodySubscribers.ofFile(
+                partPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            );
+            case 206 -> {
+                var contentRange = responseInfo.headers().firstValue("Content-Range").orElse("");
+                if (!contentRange.startsWith("bytes " + offset + "-")) {
+                    deleteTempFile(partPath);
+                    throw new UncheckedIOException(new IOException("Unexpected content range: " + contentRange));
+                }
+
+                yield HttpResponse.BodySubscribers.ofFile(partPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            case 416 -> {
+                // The part file is longer than the actual file, so start over
+                deleteTempFile(partPath);
+                throw new StatusCodeException(416);
+            }
+            default -> throw new StatusCodeException(responseInfo.statusCode());
+        };
+    }
 
-        return download(url, checkStatus(() -> HttpResponse.BodySubscribers.ofFile(path)))
-            .thenApply(HttpResponse::body);
+    private static void deleteTempFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        if (throwable instanceof StatusCodeException e) {
+            int code = e.statusCode();
+            return code == 408 || code == 416 || code == 429 || code >= 500;
+        }
+
+        return throwable instanceof IOException || throwable instanceof VerificationException;
+    }
+
+    private static boolean isValid(Path path, @Nullable String sha1, @Nullable Long size) throws IOException {
+        if (size != null && Files.size(path) != size) return false;
+        return sha1 == null || sha1.equalsIgnoreCase(sha1(path));
+    }
+
+    static String sha1(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        // The file isn't memory-mapped, since a mapping keeps it from being moved or deleted
+        // on Windows until the buffer is garbage collected
+        var buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
     }
 
     private static <T> HttpResponse.BodyHandler<T> checkStatus(Supplier<HttpResponse.BodySubscriber<T>> bodyHandler) {
@@ -75,6 +383,49 @@ public final class Download {
         };
     }
 
+    /**
+     * The order in which waiting downloads are started.
+     */
+    public enum Priority {
+        /**
+         * Metadata, the game jar and the mappings, which everything else waits for.
+         */
+        CRITICAL,
+        /**
+         * Libraries on the remapping classpath.
+         */
+        LIBRARY,
+        /**
+         * Files that aren't needed for remapping, such as natives. These are only downloaded
+         * when nothing else is waiting.
+         */
+        BACKGROUND,
+    }
+
+    public enum CachePolicy {
+        /**
+         * Cached responses are revalidated with a conditional request.
+         */
+        REVALIDATE,
+
+        /**
+         * Cached responses are used without contacting the server.
+         */
+        IMMUTABLE,
+    }
+
+    public static final class OfflineException extends RuntimeException {
+        public OfflineException(String url) {
+            super("Not available in offline mode: " + url);
+        }
+    }
+
+    public static final class VerificationException extends RuntimeException {
+        public VerificationException(String url) {
+            super("Downloaded file does not match the expected hash or size: " + url);
+        }
+    }
+
     public static final class StatusCodeException extends RuntimeException {
         private final int statusCode;
 
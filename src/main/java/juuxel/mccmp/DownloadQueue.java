@@ -0,0 +1,143 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent requests, both in total and per host, and starts waiting requests
+ * in the order of their priority. {@link Download.Priority#BACKGROUND} requests only start when no
+ * other requests are running or waiting, so that they don't take bandwidth from the critical path.
+ */
+final class DownloadQueue {
+    private static final Comparator<Pending> ORDER = Comparator.comparing(Pending::priority).thenComparingLong(Pending::sequence);
+
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final TreeSet<Pending> pending = new TreeSet<>(ORDER);
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running;
+    private int runningForeground;
+    private long sequence;
+
+    DownloadQueue(int maxRequests, int maxRequestsPerHost) {
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Queues a request. Cancelling the returned future removes the request from the queue
+     * or cancels it if it has already started.
+     *
+     * @param uri      the URI of the request, used for the per-host limit
+     * @param priority the priority of the request
+     * @param request  starts the request once there's room for it
+     * @return a future that completes with the result of the request
+     */
+    <T> CompletableFuture<T> submit(URI uri, Download.Priority priority, Supplier<CompletableFuture<T>> request) {
+        var result = new CompletableFuture<T>();
+        var started = new AtomicReference<CompletableFuture<T>>();
+        var host = String.valueOf(uri.getHost());
+        Pending queued;
+
+        synchronized (this) {
+            queued = new Pending(priority, sequence++, host, self -> {
+                CompletableFuture<T> future;
+
+                try {
+                    future = request.get();
+                } catch (Throwable t) {
+                    future = CompletableFuture.failedFuture(t);
+                }
+
+                started.set(future);
+                if (result.isCancelled()) future.cancel(true);
+
+                future.whenComplete((value, throwable) -> {
+                    finish(self);
+
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            });
+            pending.add(queued);
+        }
+
+        result.whenComplete((value, throwable) -> {
+            if (!result.isCancelled()) return;
+
+            boolean removed;
+            synchronized (this) {
+                removed = pending.remove(queued);
+            }
+
+            var future = started.get();
+            if (!removed && future != null) future.cancel(true);
+        });
+
+        startWaiting();
+        return result;
+    }
+
+    private void startWaiting() {
+        List<Pending> started = new ArrayList<>();
+
+        synchronized (this) {
+            boolean foregroundWaiting = false;
+            var iter = pending.iterator();
+
+            while (iter.hasNext() && running < maxRequests) {
+                var request = iter.next();
+                boolean background = request.priority() == Download.Priority.BACKGROUND;
+
+                if (background && (foregroundWaiting || runningForeground > 0)) break;
+
+                if (runningPerHost.getOrDefault(request.host(), 0) >= maxRequestsPerHost) {
+                    if (!background) foregroundWaiting = true;
+                    continue;
+                }
+
+                iter.remove();
+                running++;
+                if (!background) runningForeground++;
+                runningPerHost.merge(request.host(), 1, Integer::sum);
+                started.add(request);
+            }
+        }
+
+        // Started outside the lock, since a request might complete immediately
+        for (Pending request : started) {
+            request.start().accept(request);
+        }
+    }
+
+    private void finish(Pending request) {
+        synchronized (this) {
+            running--;
+            if (request.priority() != Download.Priority.BACKGROUND) runningForeground--;
+            runningPerHost.computeIfPresent(request.host(), (host, count) -> count > 1 ? count - 1 : null);
+        }
+
+        startWaiting();
+    }
+
+    private record Pending(Download.Priority priority, long sequence, String host, Consumer<Pending> start) {
+    }
+}
@@ -6,9 +6,12 @@
 
 package juuxel.mccmp;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -35,7 +38,99 @@ public final class Futures {
         return future;
     }
 
-    private static Stream<Throwable> getCauseChain(Throwable start) {
+    /**
+     * Starts all candidates at the same time and completes with the result of the first candidate
+     * in list order that succeeds. A candidate wins as soon as it has succeeded and all candidates
+     * before it have failed with an error matching the predicate, and the remaining candidates are then cancelled.
+     *
+     * <p>This is a parallel version of {@link #runFirstSuccessful}, which trades extra requests
+     * for not waiting for each failure before starting the next candidate.
+     *
+     * @param continueOnErrorPredicate whether a failed candidate should be skipped instead of failing the result
+     * @param candidates               the candidates in order of preference
+     * @return a future that completes with the winning result
+     */
+    public static <T> CompletableFuture<T> firstAcceptable(
+        Predicate<? super Throwable> continueOnErrorPredicate,
+        List<Supplier<CompletableFuture<T>>> candidates
+    ) {
+        if (candidates.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No candidates"));
+        }
+
+        var result = new CompletableFuture<T>();
+        List<CompletableFuture<T>> started = new ArrayList<>(candidates.size());
+
+        for (var candidate : candidates) {
+            CompletableFuture<T> future;
+
+            try {
+                future = candidate.get();
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+
+            started.add(future);
+        }
+
+        // Cancelling the result or deciding the winner cancels the candidates that are still running
+        result.whenComplete((value, throwable) -> {
+            for (var future : started) {
+                future.cancel(true);
+            }
+        });
+
+        for (var future : started) {
+            future.whenComplete((value, throwable) -> decideWinner(result, started, continueOnErrorPredicate));
+        }
+
+        return result;
+    }
+
+    private static <T> void decideWinner(CompletableFuture<T> result, List<CompletableFuture<T>> candidates, Predicate<? super Throwable> continueOnErrorPredicate) {
+        Throwable lastError = null;
+
+        for (var candidate : candidates) {
+            // An earlier candidate is still running, so it might win
+            if (!candidate.isDone()) return;
+
+            try {
+                result.complete(candidate.join());
+                return;
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                if (getCauseChain(cause).noneMatch(continueOnErrorPredicate)) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+
+                lastError = cause;
+            }
+        }
+
+        if (lastError != null) {
+            result.completeExceptionally(lastError);
+        }
+    }
+
+    /**
+     * Cancels a source future when a future derived from it is cancelled.
+     * Futures returned by methods such as {@link CompletableFuture#thenApply} don't do that by themselves,
+     * so cancelling them would leave the source, such as a request, running.
+     *
+     * @param future the derived future
+     * @param source the future that {@code future} depends on
+     * @return {@code future}
+     */
+    public static <T> CompletableFuture<T> forwardCancellation(CompletableFuture<T> future, CompletableFuture<?> source) {
+        future.whenComplete((value, throwable) -> {
+            if (future.isCancelled()) source.cancel(true);
+        });
+        return future;
+    }
+
+    static Stream<Throwable> getCauseChain(Throwable start) {
         return Stream.iterate(start, Objects::nonNull, Throwable::getCause);
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The files of a jar held in memory, so that remapped classes can be passed to the decompiler
+ * without compressing them into a jar and reading them back.
+ */
+public final class JarContents {
+    private final Map<String, byte[]> entries;
+
+    /**
+     * @param entries the contents of each file by its path in the jar
+     */
+    public JarContents(Map<String, byte[]> entries) {
+        this.entries = Collections.unmodifiableMap(new TreeMap<>(entries));
+    }
+
+    public static JarContents read(Path jar) throws IOException {
+        return read(jar, name -> true);
+    }
+
+    /**
+     * Reads the files of a jar that match a filter.
+     */
+    public static JarContents read(Path jar, Predicate<String> filter) throws IOException {
+        Map<String, byte[]> entries = new TreeMap<>();
+
+        try (var zip = new ZipFile(jar.toFile())) {
+            var iter = zip.entries().asIterator();
+            while (iter.hasNext()) {
+                var entry = iter.next();
+                if (entry.isDirectory() || !filter.test(entry.getName())) continue;
+
+                try (InputStream in = zip.getInputStream(entry)) {
+                    entries.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+
+        return new JarContents(entries);
+    }
+
+    /**
+     * {@return the contents of each file, sorted by path}
+     */
+    public Map<String, byte[]> entries() {
+        return entries;
+    }
+
+    public byte @Nullable [] get(String name) {
+        return entries.get(name);
+    }
+
+    public Set<String> names() {
+        return entries.keySet();
+    }
+
+    /**
+     * {@return the files whose paths match a filter}
+     */
+    public JarContents filter(Predicate<String> filter) {
+        Map<String, byte[]> result = new TreeMap<>();
+        entries.forEach((name, bytes) -> {
+            if (filter.test(name)) result.put(name, bytes);
+        });
+        return new JarContents(result);
+    }
+
+    /**
+     * Writes the files to a jar. The jar is written to a temporary file first
+     * and moved into place once complete, so a partially written jar is never visible.
+     */
+    public void write(Path jar) throws IOException {
+        Files.createDirectories(jar.getParent());
+        Path temp = Files.createTempFile(jar.getParent(), jar.getFileName().toString(), ".tmp");
+
+        try {
+            try (var out = new ZipOutputStream(Files.newOutputStream(temp))) {
+                for (var entry : entries.entrySet()) {
+                    out.putNextEntry(new ZipEntry(entry.getKey()));
+                    out.write(entry.getValue());
+                    out.closeEntry();
+                }
+            }
+
+            Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A content-addressed store of downloaded files shared by every output directory.
+ *
+ * <p>Files are stored by their SHA-1 hash as {@code objects/<first two characters>/<hash>}.
+ * The library directory of an output directory consists of hard links into the store, so each file
+ * is downloaded and stored only once per machine. If hard links aren't supported, the file is copied instead.
+ *
+ * <p>Objects are only added to the store after they have been verified, so they aren't hashed again
+ * when they're linked. A target that already links to its object is used as is.
+ */
+public final class LibraryStore {
+    private final Path directory;
+    private final Map<String, CompletableFuture<Path>> objects = new ConcurrentHashMap<>();
+
+    public LibraryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * {@return the default location of the store in the user's cache directory}
+     */
+    public static Path defaultDirectory() {
+        var cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome != null && !cacheHome.isEmpty()
+            ? Path.of(cacheHome)
+            : Path.of(System.getProperty("user.home"), ".cache");
+        return base.resolve("mccmp").resolve("store");
+    }
+
+    /**
+     * Gets a file from the store, downloading it if needed, and links it to the target path.
+     *
+     * @param target   the target path
+     * @param url      the URL to download the file from
+     * @param sha1     the SHA-1 hash of the file
+     * @param size     the expected size of the file, or {@code null} if unknown
+     * @param priority the priority of the download
+     * @return a future that completes with the target path
+     */
+    public CompletableFuture<Path> get(Path target, String url, String sha1, @Nullable Long size, Download.Priority priority) {
+        var hash = sha1.toLowerCase(Locale.ROOT);
+        Path object = directory.resolve("objects").resolve(hash.substring(0, 2)).resolve(hash);
+
+        var future = objects.computeIfAbsent(hash, h -> fetch(object, target, url, hash, size, priority));
+
+        return future
+            .whenComplete((obj, throwable) -> {
+                // A failed download can be retried by a later request
+                if (throwable != null) objects.remove(hash, future);
+            })
+            .thenApplyAsync(obj -> {
+                try {
+                    link(obj, target);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return target;
+            }, Download.EXECUTOR);
+    }
+
+    private static CompletableFuture<Path> fetch(Path object, Path target, String url, String sha1, @Nullable Long size, Download.Priority priority) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (Files.exists(object) && (size == null || Files.size(object) == size)) {
+                    Metrics.recordDownload(url, false, 0, true);
+                    return CompletableFuture.completedFuture(object);
+                }
+
+                Files.createDirectories(object.getParent());
+
+                // Move existing files from before the store into it, if they are valid
+                if (Files.exists(target) && (size == null || Files.size(target) == size) && sha1.equalsIgnoreCase(Download.sha1(target))) {
+                    link(target, object);
+                    Metrics.recordDownload(url, false, 0, true);
+                    return CompletableFuture.completedFuture(object);
+                }
+
+                return Download.file(object, url, sha1, size, priority);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Download.EXECUTOR).thenCompose(future -> future);
+    }
+
+    /**
+     * Makes the target a link to the source, replacing it atomically.
+     */
+    private static void link(Path source, Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(source, target)) return;
+
+        Files.createDirectories(target.getParent());
+        Path tempPath = target.resolveSibling(target.getFileName() + ".link");
+        Files.deleteIfExists(tempPath);
+
+        try {
+            Files.createLink(tempPath, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Hard links don't work across file systems
+            Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
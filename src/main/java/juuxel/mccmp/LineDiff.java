@@ -0,0 +1,287 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A line-based diff using Myers' linear space algorithm, producing unified diffs.
+ */
+public final class LineDiff {
+    public static final int CONTEXT_LINES = 3;
+    private static final String NO_NEWLINE_MARKER = "\\ No newline at end of file\n";
+
+    private final int[] a;
+    private final int[] b;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    private final int[] forward;
+    private final int[] backward;
+
+    private LineDiff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.deleted = new boolean[a.length];
+        this.inserted = new boolean[b.length];
+        int size = a.length + b.length + 3;
+        this.forward = new int[size];
+        this.backward = new int[size];
+    }
+
+    /**
+     * Computes the changes between two texts.
+     *
+     * @return the changed regions in ascending order
+     */
+    public static List<Change> diff(Text aText, Text bText) {
+        // Compare lines as integers
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = lineIds(aText, ids);
+        int[] b = lineIds(bText, ids);
+
+        var diff = new LineDiff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.collectChanges();
+    }
+
+    private static int[] lineIds(Text text, Map<String, Integer> ids) {
+        var lines = text.lines();
+        int[] result = new int[lines.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            var line = lines.get(i);
+            // A last line without a newline differs from the same line with one, lines never contain a newline otherwise
+            if (i == result.length - 1 && text.missingFinalNewline()) line += '\n';
+            result[i] = ids.computeIfAbsent(line, l -> ids.size());
+        }
+
+        return result;
+    }
+
+    public static int addedLines(List<Change> changes) {
+        return changes.stream().mapToInt(Change::addedLines).sum();
+    }
+
+    public static int removedLines(List<Change> changes) {
+        return changes.stream().mapToInt(Change::removedLines).sum();
+    }
+
+    private void compare(int xOff, int xLim, int yOff, int yLim) {
+        while (xOff < xLim && yOff < yLim && a[xOff] == b[yOff]) {
+            xOff++;
+            yOff++;
+        }
+
+        while (xOff < xLim && yOff < yLim && a[xLim - 1] == b[yLim - 1]) {
+            xLim--;
+            yLim--;
+        }
+
+        if (xOff == xLim) {
+            for (int y = yOff; y < yLim; y++) inserted[y] = true;
+        } else if (yOff == yLim) {
+            for (int x = xOff; x < xLim; x++) deleted[x] = true;
+        } else {
+            long split = findMiddleSnake(xOff, xLim, yOff, yLim);
+            int xMid = (int) (split >>> 32);
+            int yMid = (int) split;
+            compare(xOff, xMid, yOff, yMid);
+            compare(xMid, xLim, yMid, yLim);
+        }
+    }
+
+    /**
+     * Finds a point on an optimal edit path by searching from both ends at the same time.
+     * The first and last lines of both ranges are known to differ.
+     *
+     * @return the point, with x in the upper 32 bits and y in the lower 32 bits
+     */
+    private long findMiddleSnake(int xOff, int xLim, int yOff, int yLim) {
+        int n = xLim - xOff;
+        int m = yLim - yOff;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        // Diagonal k is stored at index k + offset. The backward search works on the reversed
+        // sequences, where diagonal c corresponds to the forward diagonal delta - c.
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                    ? forward[offset + k + 1]
+                    : forward[offset + k - 1] + 1;
+                int y = x - k;
+
+                while (x < n && y < m && a[xOff + x] == b[yOff + y]) {
+                    x++;
+                    y++;
+                }
+
+                forward[offset + k] = x;
+                int c = delta - k;
+
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return pack(xOff + x, yOff + y);
+                }
+            }
+
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])
+                    ? backward[offset + c + 1]
+                    : backward[offset + c - 1] + 1;
+                int y = x - c;
+
+                while (x < n && y < m && a[xLim - x - 1] == b[yLim - y - 1]) {
+                    x++;
+                    y++;
+                }
+
+                backward[offset + c] = x;
+                int k = delta - c;
+
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return pack(xLim - x, yLim - y);
+                }
+            }
+        }
+
+        throw new IllegalStateException("No middle snake found");
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private List<Change> collectChanges() {
+        List<Change> changes = new ArrayList<>();
+        int x = 0;
+        int y = 0;
+
+        while (x < a.length || y < b.length) {
+            if (x < a.length && y < b.length && !deleted[x] && !inserted[y]) {
+                x++;
+                y++;
+                continue;
+            }
+
+            int xStart = x;
+            int yStart = y;
+            while (x < a.length && deleted[x]) x++;
+            while (y < b.length && inserted[y]) y++;
+            changes.add(new Change(xStart, x, yStart, y));
+        }
+
+        return changes;
+    }
+
+    /**
+     * Formats changes as a unified diff.
+     *
+     * @param aName   the name of the old file, or {@code /dev/null} if it was added
+     * @param bName   the name of the new file, or {@code /dev/null} if it was removed
+     * @param a       the old file
+     * @param b       the new file
+     * @param changes the changes between the files
+     * @return the unified diff
+     */
+    public static String format(String aName, String bName, Text a, Text b, List<Change> changes) {
+        var aLines = a.lines();
+        var bLines = b.lines();
+        var sb = new StringBuilder()
+            .append("--- ").append(aName).append('\n')
+            .append("+++ ").append(bName).append('\n');
+
+        int i = 0;
+        while (i < changes.size()) {
+            // Merge changes whose context would overlap into one hunk
+            int j = i;
+            while (j + 1 < changes.size() && changes.get(j + 1).aStart() - changes.get(j).aEnd() <= 2 * CONTEXT_LINES) {
+                j++;
+            }
+
+            var first = changes.get(i);
+            var last = changes.get(j);
+            int leading = Math.min(CONTEXT_LINES, first.aStart());
+            int trailing = Math.min(CONTEXT_LINES, aLines.size() - last.aEnd());
+            int aStart = first.aStart() - leading;
+            int bStart = first.bStart() - leading;
+            int aLength = last.aEnd() + trailing - aStart;
+            int bLength = last.bEnd() + trailing - bStart;
+
+            sb.append("@@ -").append(formatRange(aStart, aLength))
+                .append(" +").append(formatRange(bStart, bLength))
+                .append(" @@\n");
+
+            int x = aStart;
+            for (int c = i; c <= j; c++) {
+                var change = changes.get(c);
+                for (; x < change.aStart(); x++) appendLine(sb, ' ', a, x);
+                for (; x < change.aEnd(); x++) appendLine(sb, '-', a, x);
+                for (int y = change.bStart(); y < change.bEnd(); y++) appendLine(sb, '+', b, y);
+            }
+
+            for (; x < last.aEnd() + trailing; x++) appendLine(sb, ' ', a, x);
+            i = j + 1;
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, char prefix, Text text, int line) {
+        sb.append(prefix).append(text.lines().get(line)).append('\n');
+
+        if (line == text.lines().size() - 1 && text.missingFinalNewline()) {
+            sb.append(NO_NEWLINE_MARKER);
+        }
+    }
+
+    private static String formatRange(int start, int length) {
+        // Empty ranges refer to the line before them
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /**
+     * The lines of a text file. Lines are only split at {@code \n}, so a line of a file with
+     * CRLF line endings keeps its {@code \r} and the patch reproduces the original bytes.
+     *
+     * @param lines               the lines without their line terminators
+     * @param missingFinalNewline whether the last line doesn't end with a newline
+     */
+    public record Text(List<String> lines, boolean missingFinalNewline) {
+        public static final Text EMPTY = new Text(List.of(), false);
+
+        public static Text of(String text) {
+            if (text.isEmpty()) return EMPTY;
+
+            List<String> lines = new ArrayList<>(List.of(text.split("\n", -1)));
+            // A final newline leaves an empty string after it
+            boolean missingFinalNewline = !lines.getLast().isEmpty();
+            if (!missingFinalNewline) lines.removeLast();
+            return new Text(lines, missingFinalNewline);
+        }
+    }
+
+    /**
+     * A changed region: lines {@code [aStart, aEnd)} of the old file were replaced with
+     * lines {@code [bStart, bEnd)} of the new file.
+     */
+    public record Change(int aStart, int aEnd, int bStart, int bEnd) {
+        public int removedLines() {
+            return aEnd - aStart;
+        }
+
+        public int addedLines() {
+            return bEnd - bStart;
+        }
+    }
+}
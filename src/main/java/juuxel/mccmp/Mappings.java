@@ -1,54 +1,198 @@
 package juuxel.mccmp;
 
-import net.fabricmc.stitch.commands.CommandProposeFieldNames;
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.stitch.util.FieldNameFinder;
 import net.fabricmc.tinyremapper.FileSystemReference;
+import net.fabricmc.tinyremapper.TinyUtils;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipFile;
 
 public final class Mappings {
-    public static Path extractMappings(Path gameJar, Path mappingsJar) throws IOException {
+    /**
+     * Gets the official to named mappings for a game jar in the binary format,
+     * converting them from the mappings jar if they haven't been cached yet.
+     *
+     * @param gameJar     the game jar
+     * @param gameJarSha1 the SHA-1 hash of the game jar if known
+     * @param mappingsJar the Yarn jar
+     * @param cacheDir    the directory of the binary mappings cache
+     * @param threads     the number of threads used for proposing field names
+     * @return the path to the binary mappings, readable with {@link BinaryMappings#read}
+     */
+    public static Path loadMappings(Path gameJar, @Nullable String gameJarSha1, Path mappingsJar, Path cacheDir, int threads) throws IOException {
+        var gameJarHash = gameJarSha1 != null ? gameJarSha1 : Download.sha1(gameJar);
+        var key = ClassGroups.sha256().digest(
+            (gameJarHash + '\0' + mappingsJar.getFileName() + '\0' + BinaryMappings.FORMAT_VERSION).getBytes(StandardCharsets.UTF_8)
+        );
+        var outputPath = cacheDir.resolve(HexFormat.of().formatHex(key) + ".bin");
+
+        // Uses the inputs of the extraction instead of its output, so that a cache hit doesn't extract the mappings
+        var manifest = new StageManifest("mappings", outputPath)
+            .input("game", gameJarHash)
+            .inputFile("mappings", mappingsJar)
+            .input("format", BinaryMappings.FORMAT_VERSION)
+            .tool("stitch")
+            .tool("tiny-remapper")
+            .code("field names", Mappings.class);
+        manifest.run(() -> {
+            var tinyPath = extractMappings(gameJar, gameJarHash, mappingsJar, threads);
+            BinaryMappings.write(TinyUtils.createTinyMappingProvider(tinyPath, "official", "named"), outputPath);
+        });
+        return outputPath;
+    }
+
+    public static Path extractMappings(Path gameJar, Path mappingsJar, int threads) throws IOException {
+        return extractMappings(gameJar, Download.sha1(gameJar), mappingsJar, threads);
+    }
+
+    private static Path extractMappings(Path gameJar, String gameJarHash, Path mappingsJar, int threads) throws IOException {
         var mappingsJarName = mappingsJar.getFileName().toString();
         var outputFileName = mappingsJarName.substring(0, mappingsJarName.length() - ".jar".length()) + ".tiny";
         var outputPath = mappingsJar.resolveSibling(outputFileName);
 
-        if (Files.exists(outputPath)) return outputPath;
+        // The game jar is only used for proposing field names, but it's cheap to include either way
+        var manifest = new StageManifest("extract mappings", outputPath)
+            .input("game", gameJarHash)
+            .inputFile("mappings", mappingsJar)
+            .tool("stitch")
+            .code("field names", Mappings.class);
+
+        manifest.run(() -> {
+            var tempPath = Files.createTempFile(outputPath.getParent(), outputFileName, ".tmp");
+
+            try {
+                try (var fs = FileSystemReference.openJar(mappingsJar, false)) {
+                    Files.copy(fs.getPath("mappings", "mappings.tiny"), tempPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                boolean isV1;
+
+                try (var reader = Files.newBufferedReader(tempPath)) {
+                    isV1 = isTinyV1(reader);
+                }
+
+                if (isV1) {
+                    proposeFieldNames(gameJar, tempPath, threads);
+                }
+
+                Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        });
+
+        return outputPath;
+    }
+
+    /**
+     * Proposes names for unnamed fields in Tiny v1 mappings using Stitch, like {@code CommandProposeFieldNames}.
+     * Each class is analysed independently, so the classes are split into chunks that are analysed in parallel.
+     */
+    private static void proposeFieldNames(Path gameJar, Path mappingsPath, int threads) throws IOException {
+        Map<EntryTriple, String> proposedNames = findFieldNames(gameJar, threads);
+        Map<String, String> proposals = new HashMap<>();
+        proposedNames.forEach((entry, name) -> proposals.put(getFieldKey(entry.getOwner(), entry.getName(), entry.getDesc()), name));
+
+        List<String> lines;
+        try (BufferedReader reader = Files.newBufferedReader(mappingsPath)) {
+            lines = reader.lines().toList();
+        }
+
+        var header = lines.get(0).split("\t");
+        int intermediaryColumn = -1;
+        int namedColumn = -1;
 
-        try (var fs = FileSystemReference.openJar(mappingsJar, false)) {
-            Files.copy(fs.getPath("mappings", "mappings.tiny"), outputPath);
+        // Namespace columns start at index 1 in the header and at index 4 in field lines
+        for (int i = 1; i < header.length; i++) {
+            if (header[i].equals("intermediary")) intermediaryColumn = i + 2;
+            if (header[i].equals("named")) namedColumn = i + 2;
         }
 
-        boolean isV1;
+        if (intermediaryColumn < 0 || namedColumn < 0) {
+            throw new IOException("Mappings are missing the intermediary or named namespace: " + lines.get(0));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(mappingsPath)) {
+            for (String line : lines) {
+                var parts = line.split("\t", -1);
+
+                if (parts[0].equals("FIELD")) {
+                    // FIELD <owner> <desc> <official name> <other names...>
+                    var proposal = proposals.get(getFieldKey(parts[1], parts[3], parts[2]));
 
-        try (var reader = Files.newBufferedReader(outputPath)) {
-            isV1 = isTinyV1(reader);
+                    if (proposal != null && (parts.length <= namedColumn || parts[namedColumn].isEmpty()
+                        || parts[namedColumn].equals(parts[intermediaryColumn]))) {
+                        if (parts.length <= namedColumn) {
+                            int length = parts.length;
+                            parts = Arrays.copyOf(parts, namedColumn + 1);
+                            // Missing names default to the intermediary name, or the official name if that's missing too
+                            var fallback = intermediaryColumn < length ? parts[intermediaryColumn] : parts[3];
+                            Arrays.fill(parts, length, namedColumn, fallback);
+                        }
+
+                        parts[namedColumn] = proposal;
+                        line = String.join("\t", parts);
+                    }
+                }
+
+                writer.write(line);
+                writer.write('\n');
+            }
         }
+    }
 
-        if (isV1) {
-            var tempFile = Files.createTempFile(null, "-input.tiny");
-            Files.copy(outputPath, tempFile, StandardCopyOption.REPLACE_EXISTING);
-            Files.delete(outputPath);
+    private static Map<EntryTriple, String> findFieldNames(Path gameJar, int threads) throws IOException {
+        List<byte[]> classes = new ArrayList<>();
 
-            // Propose names using Stitch
-            try {
-                var args = new String[] {
-                    gameJar.toAbsolutePath().toString(),
-                    tempFile.toAbsolutePath().toString(),
-                    outputPath.toAbsolutePath().toString(),
-                };
-                new CommandProposeFieldNames().run(args);
-                Files.delete(tempFile);
-            } catch (IOException | RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        try (var zip = new ZipFile(gameJar.toFile())) {
+            var iter = zip.entries().asIterator();
+            while (iter.hasNext()) {
+                var entry = iter.next();
+                if (!entry.getName().endsWith(".class")) continue;
+
+                try (InputStream in = zip.getInputStream(entry)) {
+                    classes.add(in.readAllBytes());
+                }
             }
         }
 
-        return outputPath;
+        int chunkCount = Math.min(classes.size(), threads * 4);
+        List<List<byte[]>> chunks = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(classes.subList(i * classes.size() / chunkCount, (i + 1) * classes.size() / chunkCount));
+        }
+
+        Map<EntryTriple, String> result = new HashMap<>();
+
+        try (var pool = new ForkJoinPool(threads)) {
+            pool.submit(() -> chunks.parallelStream()
+                .map(chunk -> new FieldNameFinder().findNames(chunk))
+                .toList()
+            ).join().forEach(result::putAll);
+        }
+
+        return result;
+    }
+
+    private static String getFieldKey(String owner, String name, String desc) {
+        return owner + '\0' + name + '\0' + desc;
     }
 
     private static boolean isTinyV1(Reader reader) throws IOException {
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * An on-disk cache of HTTP metadata responses, stored together with
+ * the headers needed for revalidating them with conditional requests.
+ */
+public final class MetadataCache {
+    private final Path directory;
+
+    public MetadataCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public @Nullable Entry read(String url) throws IOException {
+        var key = getKey(url);
+        var bodyPath = directory.resolve(key + ".json");
+        var headersPath = directory.resolve(key + ".properties");
+        if (Files.notExists(bodyPath) || Files.notExists(headersPath)) return null;
+
+        var headers = new Properties();
+        try (var reader = Files.newBufferedReader(headersPath)) {
+            headers.load(reader);
+        }
+
+        return new Entry(
+            bodyPath,
+            headers.getProperty("etag"),
+            headers.getProperty("lastModified")
+        );
+    }
+
+    /**
+     * Creates a temporary file in the cache directory that a response body can be streamed to
+     * before it's {@linkplain #write committed}.
+     */
+    public Path createTempFile(String url) throws IOException {
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, getKey(url), ".tmp");
+    }
+
+    /**
+     * Moves a response body written to a {@linkplain #createTempFile temporary file} into the cache.
+     *
+     * @return the cache entry
+     */
+    public Entry write(String url, Path bodyTemp, @Nullable String etag, @Nullable String lastModified) throws IOException {
+        var key = getKey(url);
+        var headers = new Properties();
+        headers.setProperty("url", url);
+        if (etag != null) headers.setProperty("etag", etag);
+        if (lastModified != null) headers.setProperty("lastModified", lastModified);
+
+        // Move the body first, so that the headers never refer to a stale body
+        var bodyPath = directory.resolve(key + ".json");
+        Files.move(bodyTemp, bodyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        var headersTemp = Files.createTempFile(directory, key, ".tmp");
+        try (var writer = Files.newBufferedWriter(headersTemp)) {
+            headers.store(writer, null);
+        }
+        Files.move(headersTemp, directory.resolve(key + ".properties"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Entry(bodyPath, etag, lastModified);
+    }
+
+    private static String getKey(String url) {
+        return HexFormat.of().formatHex(ClassGroups.sha256().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public record Entry(Path body, @Nullable String etag, @Nullable String lastModified) {
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.squareup.moshi.JsonAdapter;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of a run, which are also emitted as JFR events.
+ * The counters are global since downloads are shared by every pipeline in the process,
+ * so a pipeline takes a {@linkplain #snapshot() snapshot} when it starts and reports the difference.
+ */
+public final class Metrics {
+    private static final JsonAdapter<Report> REPORT_ADAPTER = Download.MOSHI.adapter(Report.class).indent("  ");
+    // Decompile times are kept in a histogram with 8 buckets per power of two (about 10 % precision),
+    // so that the memory used doesn't grow with the number of decompiled classes
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final AtomicLongArray DECOMPILE_TIMES = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+
+    public static void recordDecompileTime(long nanos) {
+        DECOMPILE_TIMES.incrementAndGet(bucketIndex(Math.max(0, nanos)));
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value in a bucket, so that percentiles are never underestimated
+    static long bucketMaxNanos(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * {@return the current values of the global counters and timings}
+     */
+    public static Snapshot snapshot() {
+        long[] counters = new long[Counter.values().length];
+        for (Counter counter : Counter.values()) {
+            counters[counter.ordinal()] = counter.get();
+        }
+
+        long[] decompileTimes = new long[DECOMPILE_TIMES.length()];
+        for (int i = 0; i < decompileTimes.length; i++) {
+            decompileTimes[i] = DECOMPILE_TIMES.get(i);
+        }
+
+        return new Snapshot(counters, decompileTimes);
+    }
+
+    /**
+     * Records a finished download as a JFR event and in the counters.
+     *
+     * @param bytes  the number of bytes transferred, or 0 if it was served from a cache
+     * @param cached whether the result was served from a cache
+     */
+    public static void recordDownload(String url, boolean metadata, long bytes, boolean cached) {
+        if (cached) {
+            (metadata ? Counter.METADATA_CACHED : Counter.FILES_CACHED).add(1);
+        } else {
+            (metadata ? Counter.METADATA_DOWNLOADED : Counter.FILES_DOWNLOADED).add(1);
+            (metadata ? Counter.METADATA_BYTES_DOWNLOADED : Counter.BYTES_DOWNLOADED).add(bytes);
+        }
+
+        var event = new DownloadEvent();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.bytes = bytes;
+            event.cached = cached;
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes the report of a run as JSON.
+     *
+     * @param start the snapshot taken when the run started
+     */
+    public static void writeReport(Path path, Snapshot start, TaskScheduler scheduler, DecompileCache decompileCache) throws IOException {
+        var end = snapshot();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            int i = counter.ordinal();
+            counters.put(counter.name().toLowerCase(Locale.ROOT), end.counters()[i] - start.counters()[i]);
+        }
+
+        long[] times = new long[end.decompileTimes().length];
+        long count = 0;
+        for (int i = 0; i < times.length; i++) {
+            times[i] = end.decompileTimes()[i] - start.decompileTimes()[i];
+            count += times[i];
+        }
+
+        var decompile = new DecompileReport(
+            decompileCache.hits(),
+            decompileCache.misses(),
+            count,
+            percentileMillis(times, count, 0.5),
+            percentileMillis(times, count, 0.9),
+            percentileMillis(times, count, 0.99),
+            percentileMillis(times, count, 1)
+        );
+        var report = new Report(scheduler.elapsedSeconds(), processPeakHeapBytes(), counters, decompile, scheduler.stageReports());
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tempPath = Files.createTempFile(path.toAbsolutePath().getParent(), "report", ".tmp");
+        Files.writeString(tempPath, REPORT_ADAPTER.toJson(report), StandardCharsets.UTF_8);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static double percentileMillis(long[] histogram, long count, double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) return bucketMaxNanos(i) / 1_000_000.0;
+        }
+
+        throw new AssertionError("unreachable");
+    }
+
+    // The sum of the peaks of each heap pool, which is an upper bound of the actual peak.
+    // The peaks can't be scoped to a run, since resetting them would affect the other runs of a server.
+    private static long processPeakHeapBytes() {
+        return ManagementFactory.getMemoryPoolMXBeans()
+            .stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .mapToLong(pool -> pool.getPeakUsage().getUsed())
+            .sum();
+    }
+
+    public enum Counter {
+        FILES_DOWNLOADED,
+        BYTES_DOWNLOADED,
+        FILES_CACHED,
+        METADATA_DOWNLOADED,
+        METADATA_BYTES_DOWNLOADED,
+        METADATA_CACHED,
+        CLASSES_REMAPPED,
+        CLASSES_DECOMPILED,
+        FILES_DIFFED,
+        ;
+
+        private final LongAdder value = new LongAdder();
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    @Name("juuxel.mccmp.Stage")
+    @Label("Pipeline Stage")
+    @Category("mccmp")
+    public static final class StageEvent extends Event {
+        @Label("Name")
+        public String name;
+
+        @Label("CPUs")
+        public int cpus;
+    }
+
+    @Name("juuxel.mccmp.Download")
+    @Label("Download")
+    @Category("mccmp")
+    public static final class DownloadEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Cached")
+        public boolean cached;
+    }
+
+    @Name("juuxel.mccmp.DecompileClass")
+    @Label("Decompile Class")
+    @Category("mccmp")
+    public static final class DecompileClassEvent extends Event {
+        @Label("Class Name")
+        public String className;
+    }
+
+    /**
+     * @param processPeakHeapBytes the peak heap usage of the whole process since it started,
+     *                             which includes earlier and concurrent runs of a server
+     */
+    public record Report(
+        double totalSeconds,
+        long processPeakHeapBytes,
+        Map<String, Long> counters,
+        DecompileReport decompile,
+        List<StageReport> stages
+    ) {
+    }
+
+    public record DecompileReport(
+        long cacheHits,
+        long cacheMisses,
+        long classesTimed,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        double maxMillis
+    ) {
+    }
+
+    /**
+     * The values of the global counters and the decompile time histogram at some point in time.
+     */
+    public record Snapshot(long[] counters, long[] decompileTimes) {
+    }
+
+    public record StageReport(String name, int cpus, double startSeconds, double durationSeconds, double waitedSeconds) {
+    }
+}
@@ -0,0 +1,771 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import juuxel.mccmp.data.GlobalManifest;
+import juuxel.mccmp.data.MinecraftMetadata;
+import juuxel.mccmp.data.VersionManifest;
+import juuxel.mccmp.data.YarnVersion;
+import net.fabricmc.tinyremapper.FileSystemReference;
+import net.fabricmc.tinyremapper.NonClassCopyMode;
+import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The comparison pipeline. Each version moves through downloading, mapping extraction and remapping
+ * as soon as its own inputs are ready. Once both versions of a pair have been remapped, they're decompiled
+ * concurrently and diffed.
+ */
+public final class Pipeline implements AutoCloseable {
+    private static final String MANIFEST_URL = "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json";
+    private static final Pattern SYNTHETIC_LV_NAME_PATTERN = Pattern.compile("^☃|\\$\\$[0-9]+$");
+    // One pair can be diffed while the next one is being remapped and decompiled
+    private static final int MAX_PAIRS_IN_FLIGHT = 2;
+    // The remapping itself is set up in this class
+    private static final Class<?>[] REMAP_CODE = { Pipeline.class, BinaryMappings.class };
+    private static final Class<?>[] DIFF_CODE = { SourceDiff.class, LineDiff.class, RenameDetector.class, DiffIndex.class };
+
+    private final Path outputPath;
+    private final Path libraryDir;
+    private final LibraryStore libraryStore;
+    private final boolean writeDiffArchive;
+    private final boolean inMemory;
+    private final boolean writeRemappedJar;
+    private final DecompileCache decompileCache;
+    private final Decompiler decompiler;
+    private final TaskScheduler scheduler;
+    private final Metrics.Snapshot startMetrics = Metrics.snapshot();
+    private final ClasspathIndex classpathIndex;
+    private final Path mappingsCacheDir;
+    private final VersionIndex versionIndex;
+    private final Map<Path, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+    private final Map<String, VersionState> versions = new HashMap<>();
+    private @Nullable CompletableFuture<GlobalManifest> globalManifest;
+
+    public Pipeline(
+        Path outputPath,
+        Path cacheDir,
+        long decompileCacheSize,
+        int threads,
+        boolean writeDiffArchive,
+        DecompileWorker.@Nullable Options decompileWorkers,
+        Path libraryStore,
+        boolean inMemory,
+        boolean writeRemappedJar
+    ) throws IOException {
+        this.outputPath = outputPath;
+        this.writeDiffArchive = writeDiffArchive;
+        this.inMemory = inMemory;
+        this.writeRemappedJar = writeRemappedJar;
+        this.libraryDir = outputPath.resolve("libraries");
+        this.libraryStore = new LibraryStore(libraryStore);
+        Files.createDirectories(cacheDir);
+        this.decompileCache = new DecompileCache(cacheDir.resolve("decompiled"), decompileCacheSize);
+        this.decompiler = new Decompiler(decompileCache, decompileWorkers);
+        this.scheduler = new TaskScheduler(threads);
+        this.classpathIndex = new ClasspathIndex(cacheDir.resolve("classpath"));
+        this.mappingsCacheDir = cacheDir.resolve("mappings");
+        this.versionIndex = new VersionIndex(cacheDir.resolve("versions.idx"));
+    }
+
+    public CompletableFuture<GlobalManifest> globalManifest() {
+        synchronized (this) {
+            if (globalManifest == null) {
+                globalManifest = scheduler.track("manifest", () -> Download.json(MANIFEST_URL, GlobalManifest.class))
+                    .thenApply(manifest -> {
+                        try {
+                            versionIndex.update(manifest);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+
+                        return manifest;
+                    });
+            }
+
+            return globalManifest;
+        }
+    }
+
+    // Used when a version is missing, since a long-running pipeline might have an outdated manifest
+    private CompletableFuture<GlobalManifest> reloadGlobalManifest(CompletableFuture<GlobalManifest> outdated) {
+        synchronized (this) {
+            if (globalManifest == outdated) {
+                globalManifest = null;
+            }
+
+            return globalManifest();
+        }
+    }
+
+    /**
+     * {@return a future that completes with the version index}
+     * The global manifest is only loaded if one of the versions isn't indexed yet.
+     *
+     * @param versionIds the versions that the caller needs
+     */
+    public CompletableFuture<VersionIndex> versionIndex(String... versionIds) {
+        if (isIndexed(versionIds)) {
+            return CompletableFuture.completedFuture(versionIndex);
+        }
+
+        var currentGlobalManifest = globalManifest();
+        return currentGlobalManifest.thenCompose(manifest -> {
+            if (isIndexed(versionIds)) {
+                return CompletableFuture.completedFuture(manifest);
+            }
+
+            return reloadGlobalManifest(currentGlobalManifest);
+        }).thenApply(manifest -> versionIndex);
+    }
+
+    private boolean isIndexed(String... versionIds) {
+        if (versionIndex.isEmpty()) return false;
+
+        for (String versionId : versionIds) {
+            if (versionIndex.get(versionId) == null) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * {@return a future that completes with the version index once it's been updated from the global manifest}
+     */
+    public CompletableFuture<VersionIndex> refreshVersionIndex() {
+        return globalManifest().thenApply(manifest -> versionIndex);
+    }
+
+    /**
+     * {@return whether a version ID can be used in file names}
+     * Version IDs come from users and HTTP requests, so they must not be able to point outside the output directory.
+     */
+    public static boolean isSafeVersionId(String versionId) {
+        return !versionId.isEmpty() && !versionId.contains("/") && !versionId.contains("\\") && !versionId.contains("..");
+    }
+
+    /**
+     * {@return the base file name of the outputs for a pair of versions}
+     *
+     * @throws IllegalArgumentException if either version ID is not {@linkplain #isSafeVersionId safe}
+     */
+    static String pairName(String fromVersion, String toVersion) {
+        return checkVersionId(fromVersion) + "-" + checkVersionId(toVersion);
+    }
+
+    private static String checkVersionId(String versionId) {
+        if (!isSafeVersionId(versionId)) {
+            throw new IllegalArgumentException("Invalid version ID: " + versionId);
+        }
+
+        return versionId;
+    }
+
+    public Path getDiffDirectory(String fromVersion, String toVersion) {
+        return outputPath.resolve("diffs").resolve(pairName(fromVersion, toVersion));
+    }
+
+    public Path getDiffJar(String fromVersion, String toVersion) {
+        return outputPath.resolve("diffs").resolve(pairName(fromVersion, toVersion) + ".jar");
+    }
+
+    /**
+     * {@return the {@linkplain DiffIndex index} of a diff between the two versions}
+     */
+    public Path getDiffIndex(String fromVersion, String toVersion) {
+        return outputPath.resolve("diffs").resolve(pairName(fromVersion, toVersion) + ".index");
+    }
+
+    /**
+     * {@return whether a diff between the two versions has been fully written by the current versions of the tools}
+     */
+    public boolean isDiffComplete(String fromVersion, String toVersion) throws IOException {
+        return completionManifest(fromVersion, toVersion).isUpToDate();
+    }
+
+    /**
+     * Marks a diff between the two versions as fully written by the current versions of the tools.
+     */
+    void markDiffComplete(String fromVersion, String toVersion) throws IOException {
+        var manifest = completionManifest(fromVersion, toVersion);
+        Files.write(manifest.output(), new byte[0]);
+        manifest.commit();
+    }
+
+    private Path getCompletionMarker(String fromVersion, String toVersion) {
+        return outputPath.resolve("diffs").resolve(pairName(fromVersion, toVersion) + ".complete");
+    }
+
+    /**
+     * Describes everything that a finished diff depends on apart from the versions, which can be
+     * checked without the intermediate outputs. The inputs of the stages are checked by their own manifests.
+     */
+    private StageManifest completionManifest(String fromVersion, String toVersion) {
+        return new StageManifest("complete", getCompletionMarker(fromVersion, toVersion))
+            .input("archive", writeDiffArchive)
+            .tool("stitch")
+            .tool("tiny-remapper")
+            .tool("vineflower")
+            .code("field names", Mappings.class)
+            .code("remap", REMAP_CODE)
+            .code("decompile", Decompiler.class, DecompileWorker.class)
+            .code("diff", DIFF_CODE);
+    }
+
+    public CompletableFuture<Path> compare(String fromVersion, String toVersion) {
+        return compareAll(List.of(new Pair<>(fromVersion, toVersion))).get(0);
+    }
+
+    /**
+     * Compares multiple pairs of versions in order, with up to {@value #MAX_PAIRS_IN_FLIGHT} pairs running at a time.
+     * Each version is downloaded, remapped and hashed only once, and its in-memory state is released
+     * as soon as no remaining pair uses it.
+     *
+     * @return futures that complete with the diff directory of each pair
+     */
+    public List<CompletableFuture<Path>> compareAll(List<Pair<String, String>> pairs) {
+        return new ComparisonBatch(pairs).start();
+    }
+
+    /**
+     * Compares the declarations of two versions without decompiling them.
+     * The report is written to {@code api/<from>-<to>.txt} and {@code .json} in the output directory.
+     *
+     * @return a future that completes with the report
+     */
+    public CompletableFuture<ApiDiff.Report> compareApi(String fromVersion, String toVersion) {
+        var from = acquire(fromVersion);
+        var to = acquire(toVersion);
+        Path reportDir = outputPath.resolve("api");
+        var name = pairName(fromVersion, toVersion);
+
+        return from.remapped().thenCombine(to.remapped(), Pair::new)
+            .thenCompose(versions -> scheduler.submit(
+                "api diff " + name,
+                scheduler.cpuBudget(),
+                cpus -> {
+                    System.out.println(":diffing declarations...");
+                    ApiDiff.Report report;
+
+                    try (var pool = new ForkJoinPool(cpus)) {
+                        var a = versions.first();
+                        var b = versions.second();
+                        report = a.classes() != null && b.classes() != null
+                            ? ApiDiff.diff(a.classes(), b.classes(), pool)
+                            : ApiDiff.diff(a.remappedJar(), b.remappedJar(), pool);
+                    }
+
+                    report.write(reportDir.resolve(name + ".txt"), reportDir.resolve(name + ".json"));
+                    report.printSummary(System.out);
+                    return report;
+                }
+            ))
+            .whenComplete((result, throwable) -> {
+                release(fromVersion);
+                release(toVersion);
+            });
+    }
+
+    /**
+     * Starts the pairs of a {@link #compareAll} call as earlier pairs finish, so that only the versions
+     * of the running pairs and the versions needed by later pairs are held in memory.
+     */
+    private final class ComparisonBatch {
+        private final List<Pair<String, String>> pairs;
+        private final List<CompletableFuture<Path>> results;
+        private final Map<String, Integer> remainingUses = new HashMap<>();
+        private final Map<String, VersionState> states = new HashMap<>();
+        private int next;
+
+        ComparisonBatch(List<Pair<String, String>> pairs) {
+            this.pairs = pairs;
+            this.results = pairs.stream().map(pair -> new CompletableFuture<Path>()).toList();
+
+            for (var pair : pairs) {
+                remainingUses.merge(pair.first(), 1, Integer::sum);
+                remainingUses.merge(pair.second(), 1, Integer::sum);
+            }
+        }
+
+        List<CompletableFuture<Path>> start() {
+            for (int i = 0; i < MAX_PAIRS_IN_FLIGHT; i++) {
+                startNext();
+            }
+
+            return results;
+        }
+
+        private void startNext() {
+            int index;
+            VersionState from;
+            VersionState to;
+
+            synchronized (this) {
+                if (next >= pairs.size()) return;
+                index = next++;
+                from = states.computeIfAbsent(pairs.get(index).first(), Pipeline.this::acquire);
+                to = states.computeIfAbsent(pairs.get(index).second(), Pipeline.this::acquire);
+            }
+
+            var pair = pairs.get(index);
+            compare(pair.first(), from, pair.second(), to).whenComplete((result, throwable) -> {
+                synchronized (this) {
+                    finish(pair.first());
+                    finish(pair.second());
+                }
+
+                startNext();
+
+                if (throwable != null) {
+                    results.get(index).completeExceptionally(throwable);
+                } else {
+                    results.get(index).complete(result);
+                }
+            });
+        }
+
+        private void finish(String versionId) {
+            if (remainingUses.merge(versionId, -1, Integer::sum) == 0) {
+                remainingUses.remove(versionId);
+                states.remove(versionId);
+                release(versionId);
+            }
+        }
+    }
+
+    private CompletableFuture<Path> compare(String fromVersion, VersionState from, String toVersion, VersionState to) {
+        var changes = from.hashes().thenCombine(to.hashes(), ClassGroups::compare);
+
+        Path sourceDir = outputPath.resolve("sources").resolve(pairName(fromVersion, toVersion));
+        Path diffJarPath = getDiffJar(fromVersion, toVersion);
+        Path diffDirPath = getDiffDirectory(fromVersion, toVersion);
+        Path diffIndexPath = getDiffIndex(fromVersion, toVersion);
+        Path completionMarker = getCompletionMarker(fromVersion, toVersion);
+
+        // The two decompilations run concurrently and share the CPU budget
+        int decompileCpus = Math.max(1, scheduler.cpuBudget() / 2);
+        var fromSources = from.remapped().thenCombine(changes, (version, pair) -> new Pair<>(version, pair.first()))
+            .thenCompose(pair -> scheduler.submit(
+                "decompile %s (%s-%s)".formatted(fromVersion, fromVersion, toVersion),
+                decompileCpus,
+                cpus -> decompile(pair.first(), pair.second(), sourceDir, cpus)
+            ));
+        var toSources = to.remapped().thenCombine(changes, (version, pair) -> new Pair<>(version, pair.second()))
+            .thenCompose(pair -> scheduler.submit(
+                "decompile %s (%s-%s)".formatted(toVersion, fromVersion, toVersion),
+                decompileCpus,
+                cpus -> decompile(pair.first(), pair.second(), sourceDir, cpus)
+            ));
+
+        return fromSources.thenCombine(toSources, Pair::new)
+            .thenCompose(sources -> scheduler.submit(
+                "diff %s-%s".formatted(fromVersion, toVersion),
+                scheduler.cpuBudget(),
+                cpus -> {
+                    var manifest = new StageManifest("diff", diffDirPath)
+                        .inputFile("from", sources.first())
+                        .inputFile("to", sources.second())
+                        .input("archive", writeDiffArchive)
+                        .code("diff", DIFF_CODE);
+
+                    if (manifest.isUpToDate() && Files.exists(diffIndexPath) && (!writeDiffArchive || Files.exists(diffJarPath))) {
+                        // The earlier stages might have been rerun by newer tools with the same results
+                        if (!isDiffComplete(fromVersion, toVersion)) markDiffComplete(fromVersion, toVersion);
+                        System.out.println(":diff " + fromVersion + "-" + toVersion + " is up to date");
+                        return diffDirPath;
+                    }
+
+                    completionManifest(fromVersion, toVersion).invalidate();
+                    Files.deleteIfExists(completionMarker);
+                    manifest.invalidate();
+                    // Don't leave a stale archive from an earlier run behind
+                    if (!writeDiffArchive) Files.deleteIfExists(diffJarPath);
+                    diff(sources.first(), sources.second(), writeDiffArchive ? diffJarPath : null, diffIndexPath, diffDirPath, cpus);
+                    manifest.commit();
+                    markDiffComplete(fromVersion, toVersion);
+                    return diffDirPath;
+                }
+            ));
+    }
+
+    private VersionState acquire(String versionId) {
+        synchronized (versions) {
+            var state = versions.get(versionId);
+
+            if (state == null) {
+                var remapped = prepare(versionId);
+                var hashes = remapped.thenCompose(version -> scheduler.submit(
+                    "hash " + versionId,
+                    Math.max(1, scheduler.cpuBudget() / 2),
+                    cpus -> {
+                        try (var pool = new ForkJoinPool(cpus)) {
+                            return version.classes() != null ? ClassGroups.hash(version.classes(), pool) : ClassGroups.hash(version.remappedJar(), pool);
+                        }
+                    }
+                ));
+                state = new VersionState(remapped, hashes, new AtomicInteger());
+                versions.put(versionId, state);
+            }
+
+            state.users().incrementAndGet();
+            return state;
+        }
+    }
+
+    private void release(String versionId) {
+        synchronized (versions) {
+            var state = versions.get(versionId);
+
+            if (state != null && state.users().decrementAndGet() == 0) {
+                versions.remove(versionId);
+            }
+        }
+    }
+
+    private CompletableFuture<RemappedVersion> prepare(String versionId) {
+        var manifest = versionIndex(versionId).thenCompose(index -> {
+            var version = index.get(versionId);
+
+            if (version == null) {
+                throw new IllegalArgumentException("could not find version '" + versionId + "'");
+            }
+
+            var url = version.url();
+            if (url == null) {
+                throw new IllegalArgumentException("version '" + versionId + "' has no manifest URL");
+            }
+
+            return scheduler.track("manifest " + versionId, () -> Download.json(url, VersionManifest.class, Download.CachePolicy.IMMUTABLE));
+        });
+
+        var libraries = manifest.thenCompose(m -> scheduler.track("libraries " + versionId, () -> downloadLibraries(m)));
+        var classpath = manifest.thenCompose(m -> scheduler.track("classpath index " + versionId, () -> indexLibraries(m)));
+        var metadata = manifest.thenCompose(m -> scheduler.track("game jar and mappings " + versionId, () -> resolveMetadata(m)));
+        int remapCpus = Math.max(1, scheduler.cpuBudget() / 2);
+        var mappings = metadata.thenCompose(m -> scheduler.submit(
+            "mappings " + versionId,
+            remapCpus,
+            cpus -> Mappings.loadMappings(m.gameJar(), m.manifest().downloads().get("client").sha1(), m.mappingsJar(), mappingsCacheDir, cpus)
+        ));
+
+        return CompletableFuture.allOf(metadata, mappings, libraries, classpath)
+            .thenCompose(unused -> scheduler.submit(
+                "remap " + versionId,
+                remapCpus,
+                cpus -> {
+                    if (!inMemory) {
+                        var remappedJar = remap(metadata.join(), mappings.join(), classpath.join(), cpus);
+                        return new RemappedVersion(metadata.join(), libraries.join(), remappedJar, null);
+                    }
+
+                    var remappedJar = getRemappedJar(metadata.join());
+                    var remapManifest = remapManifest(metadata.join(), mappings.join(), classpath.join());
+                    JarContents classes;
+
+                    if (remapManifest.isUpToDate()) {
+                        classes = JarContents.read(remappedJar);
+                    } else {
+                        classes = remapInMemory(metadata.join(), mappings.join(), classpath.join(), cpus);
+                        if (writeRemappedJar) writeInBackground(versionId, classes, remapManifest);
+                    }
+
+                    return new RemappedVersion(metadata.join(), libraries.join(), remappedJar, classes);
+                }
+            ));
+    }
+
+    // The remapped jar is only a cache for later runs, so nothing waits for it
+    private void writeInBackground(String versionId, JarContents classes, StageManifest manifest) {
+        scheduler.submit("write remapped jar " + versionId, 1, cpus -> {
+            manifest.invalidate();
+            classes.write(manifest.output());
+            manifest.commit();
+            return null;
+        }).exceptionally(throwable -> {
+            System.out.println(":could not write remapped jar for " + versionId + ": " + throwable);
+            return null;
+        });
+    }
+
+    private CompletableFuture<List<Path>> downloadLibraries(VersionManifest manifest) {
+        var futures = manifest.libraries()
+            .stream()
+            .map(this::downloadLibrary)
+            .toList();
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+            .thenApply(unused -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    // Natives don't contain any classes, so they aren't needed for remapping
+    private CompletableFuture<List<Path>> indexLibraries(VersionManifest manifest) {
+        var futures = manifest.libraries()
+            .stream()
+            .filter(library -> !isNatives(library))
+            .map(library -> downloadLibrary(library)
+                .thenCompose(path -> classpathIndex.get(path, library.downloads().artifact().sha1())))
+            .toList();
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+            .thenApply(unused -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    private CompletableFuture<Path> downloadLibrary(VersionManifest.Library library) {
+        return downloadLibrary(library, isNatives(library) ? Download.Priority.BACKGROUND : Download.Priority.LIBRARY);
+    }
+
+    private CompletableFuture<Path> downloadLibrary(VersionManifest.Library library, Download.Priority priority) {
+        var artifact = library.downloads().artifact();
+        return downloadFile(libraryDir.resolve(artifact.path()), artifact.url(), artifact.sha1(), artifact.size(), priority);
+    }
+
+    private static boolean isNatives(VersionManifest.Library library) {
+        return library.name().contains(":natives-");
+    }
+
+    // Libraries shared by both versions must only be downloaded once.
+    // Files with a known hash are shared between output directories through the library store.
+    private CompletableFuture<Path> downloadFile(Path path, String url, Download.Priority priority) {
+        return downloadFile(path, url, null, null, priority);
+    }
+
+    private CompletableFuture<Path> downloadFile(Path path, String url, @Nullable String sha1, @Nullable Long size, Download.Priority priority) {
+        return downloads.computeIfAbsent(path, p -> {
+            try {
+                Files.createDirectories(p.getParent());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return sha1 != null ? libraryStore.get(p, url, sha1, size, priority) : Download.file(p, url, sha1, size, priority);
+        });
+    }
+
+    static Path getRemappedJar(MinecraftMetadata metadata) {
+        return metadata.gameJar()
+            .resolveSibling("minecraft-%s-%s".formatted(metadata.id(), metadata.mappingsJar().getFileName()));
+    }
+
+    /**
+     * Describes the inputs of the remapped jar, which is only reused if they haven't changed.
+     */
+    static StageManifest remapManifest(MinecraftMetadata metadata, Path mappingsPath, List<Path> classpath) throws IOException {
+        var client = metadata.manifest().downloads().get("client");
+        var gameJarHash = client != null && client.sha1() != null ? client.sha1() : Download.sha1(metadata.gameJar());
+
+        return new StageManifest("remap", getRemappedJar(metadata))
+            .input("game", gameJarHash)
+            .inputFile("mappings", mappingsPath)
+            .input("classpath", DecompileCache.fingerprint(classpath.stream().map(library -> library.getFileName().toString()).sorted().toList()))
+            .input("invalidLvNamePattern", SYNTHETIC_LV_NAME_PATTERN.pattern())
+            .tool("tiny-remapper")
+            .code("remap", REMAP_CODE);
+    }
+
+    static Path remap(MinecraftMetadata metadata, Path mappingsPath, List<Path> classpath, int threads) {
+        var remappedJarPath = getRemappedJar(metadata);
+
+        try {
+            remapManifest(metadata, mappingsPath, classpath).run(() -> {
+                System.out.println(":remapping " + metadata.id() + " with " + metadata.mappingsJar().getFileName());
+                // The output consumer would add to an outdated jar instead of replacing it
+                Files.deleteIfExists(remappedJarPath);
+                TinyRemapper remapper = createRemapper(mappingsPath, threads);
+
+                try (var outputConsumer = new OutputConsumerPath.Builder(remappedJarPath).build()) {
+                    outputConsumer.addNonClassFiles(metadata.gameJar(), NonClassCopyMode.SKIP_META_INF, remapper);
+                    applyRemapper(remapper, metadata, classpath, outputConsumer);
+                } finally {
+                    remapper.finish();
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return remappedJarPath;
+    }
+
+    /**
+     * Remaps the game jar into memory.
+     */
+    static JarContents remapInMemory(MinecraftMetadata metadata, Path mappingsPath, List<Path> classpath, int threads) {
+        try {
+            System.out.println(":remapping " + metadata.id() + " with " + metadata.mappingsJar().getFileName());
+
+            // Like NonClassCopyMode.SKIP_META_INF
+            Map<String, byte[]> entries = new ConcurrentHashMap<>(
+                JarContents.read(metadata.gameJar(), name -> !name.endsWith(".class") && !name.startsWith("META-INF/")).entries()
+            );
+            TinyRemapper remapper = createRemapper(mappingsPath, threads);
+
+            try {
+                applyRemapper(remapper, metadata, classpath, (name, bytes) -> entries.put(name + ".class", bytes));
+            } finally {
+                remapper.finish();
+            }
+
+            return new JarContents(entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static TinyRemapper createRemapper(Path mappingsPath, int threads) throws IOException {
+        var mappingProvider = BinaryMappings.read(mappingsPath);
+
+        return TinyRemapper.newRemapper()
+            .threads(threads)
+            .withMappings(mappingProvider)
+            .renameInvalidLocals(true)
+            .invalidLvNamePattern(SYNTHETIC_LV_NAME_PATTERN)
+            .build();
+    }
+
+    private static void applyRemapper(TinyRemapper remapper, MinecraftMetadata metadata, List<Path> classpath, BiConsumer<String, byte[]> output) {
+        remapper.readClassPath(classpath.toArray(Path[]::new));
+        remapper.readInputs(metadata.gameJar());
+        remapper.apply((name, bytes) -> {
+            Metrics.Counter.CLASSES_REMAPPED.add(1);
+            output.accept(name, bytes);
+        });
+    }
+
+    private CompletableFuture<MinecraftMetadata> resolveMetadata(VersionManifest manifest) {
+        var gameJar = downloadLibrary(libraryForMinecraft(manifest), Download.Priority.CRITICAL);
+        var yarnJar = Download.json("https://meta.fabricmc.net/v2/versions/yarn/" + manifest.id(), new TypeToken<List<YarnVersion>>() {})
+            .thenCompose(yarnVersions -> {
+                if (yarnVersions.isEmpty()) {
+                    throw new IllegalArgumentException("no Yarn mappings for version '" + manifest.id() + "'");
+                }
+
+                String yarnVersion = yarnVersions.get(0).version();
+                var yarnMergedV2 = new DependencyCoordinates("net.fabricmc", "yarn", yarnVersion, "mergedv2");
+                var yarnV1 = new DependencyCoordinates("net.fabricmc", "yarn", yarnVersion);
+
+                // Older versions only have v1 mappings, so both variants are probed at once
+                // and only the preferred one that exists is downloaded
+                List<Supplier<CompletableFuture<DependencyCoordinates>>> probes = List.of(
+                    () -> probeYarn(yarnMergedV2),
+                    () -> probeYarn(yarnV1)
+                );
+
+                return Futures.firstAcceptable(
+                    t -> t instanceof Download.StatusCodeException e && e.statusCode() == 404 || t instanceof Download.OfflineException,
+                    probes
+                ).thenCompose(coordinates -> downloadFile(
+                    libraryDir.resolve(coordinates.toUrlPart()),
+                    coordinates.toFabricMavenUrl(),
+                    Download.Priority.CRITICAL
+                ));
+            });
+
+        return gameJar.thenCombine(yarnJar, (gameJarPath, yarnJarPath) ->
+            new MinecraftMetadata(manifest.id(), manifest, gameJarPath, yarnJarPath));
+    }
+
+    private CompletableFuture<DependencyCoordinates> probeYarn(DependencyCoordinates coordinates) {
+        // A jar downloaded earlier doesn't need to be probed, which also makes this work offline
+        if (Files.exists(libraryDir.resolve(coordinates.toUrlPart()))) {
+            return CompletableFuture.completedFuture(coordinates);
+        }
+
+        // The probe that loses is cancelled, which must reach the request
+        var head = Download.head(coordinates.toFabricMavenUrl(), Download.Priority.CRITICAL);
+        return Futures.forwardCancellation(head.thenApply(unused -> coordinates), head);
+    }
+
+    private Path decompile(RemappedVersion version, ClassGroups.Changes changes, Path sourceDir, int threads) throws IOException {
+        Path sourcePath = sourceDir.resolve(version.remappedJar().getFileName());
+        List<String> librarySha1s = version.metadata()
+            .manifest()
+            .libraries()
+            .stream()
+            .map(library -> library.downloads().artifact().sha1())
+            .toList();
+
+        if (version.classes() != null) {
+            decompiler.decompile(version.metadata().id(), version.classes(), version.libraries(), librarySha1s, changes, sourcePath, threads);
+        } else {
+            decompiler.decompile(version.metadata().id(), version.remappedJar(), version.libraries(), librarySha1s, changes, sourcePath, threads);
+        }
+
+        return sourcePath;
+    }
+
+    static void diff(Path a, Path b, @Nullable Path outputPath, @Nullable Path indexPath, Path outputDir, int threads) throws IOException {
+        System.out.println(":diffing...");
+        SourceDiff.Summary summary;
+
+        try (var aFs = FileSystemReference.openJar(a, false);
+             var bFs = FileSystemReference.openJar(b, false);
+             var pool = new ForkJoinPool(threads)) {
+            summary = SourceDiff.diff(aFs.getPath("/"), bFs.getPath("/"), outputDir, outputPath, indexPath, pool);
+        }
+
+        summary.print(System.out);
+        Metrics.Counter.FILES_DIFFED.add(summary.changed() + summary.added() + summary.removed() + summary.renamed());
+    }
+
+    private static VersionManifest.Library libraryForMinecraft(VersionManifest manifest) {
+        var client = manifest.downloads().get("client");
+        return new VersionManifest.Library(
+            "net.minecraft:minecraft:" + manifest.id(),
+            new VersionManifest.Library.Downloads(
+                new VersionManifest.Library.Artifact(
+                    "net/minecraft/minecraft/" + manifest.id() + "/minecraft-" + manifest.id() + ".jar",
+                    client.url(),
+                    client.sha1(),
+                    client.size()
+                )
+            )
+        );
+    }
+
+    public void evictCaches() throws IOException {
+        decompileCache.evict();
+        System.out.printf(":decompile cache: %d hits, %d misses%n", decompileCache.hits(), decompileCache.misses());
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.close();
+        evictCaches();
+        scheduler.printTimeline(System.out);
+        Metrics.writeReport(outputPath.resolve("report.json"), startMetrics, scheduler, decompileCache);
+    }
+
+    /**
+     * @param remappedJar the remapped jar, which might not have been written yet if the classes are held in memory
+     * @param classes     the remapped classes in memory mode, or {@code null} if they should be read from the remapped jar
+     */
+    private record RemappedVersion(MinecraftMetadata metadata, List<Path> libraries, Path remappedJar, @Nullable JarContents classes) {
+    }
+
+    private record VersionState(
+        CompletableFuture<RemappedVersion> remapped,
+        CompletableFuture<Map<String, byte[]>> hashes,
+        AtomicInteger users
+    ) {
+    }
+}
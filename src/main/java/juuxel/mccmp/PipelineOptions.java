@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public final class PipelineOptions {
+    @CommandLine.Option(names = {"-o", "--output"})
+    public Path outputPath = Path.of(".");
+
+    @CommandLine.Option(names = "--cache", description = "The cache directory, defaults to <output>/cache")
+    public @Nullable Path cachePath;
+
+    @CommandLine.Option(names = "--library-store", description = "The directory of the library store shared by all output directories, defaults to ~/.cache/mccmp/store")
+    public @Nullable Path libraryStorePath;
+
+    @CommandLine.Option(names = "--decompile-cache-size", description = "The maximum size of the decompilation cache in MiB")
+    public long decompileCacheSize = 2048;
+
+    @CommandLine.Option(names = "--threads", description = "The number of CPUs shared by the remapping and decompilation stages")
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = "--offline", description = "Resolve everything from the caches and the libraries directory")
+    public boolean offline;
+
+    @CommandLine.Option(names = "--decompile-workers", description = "Decompile in this many forked worker JVMs at a time instead of in this JVM")
+    public int decompileWorkers;
+
+    @CommandLine.Option(names = "--worker-heap", description = "The maximum heap size of each decompile worker, such as 2g")
+    public String workerHeap = "2g";
+
+    @CommandLine.Option(names = "--shard-size", description = "The maximum size of the classes decompiled by one worker in MiB")
+    public long shardSize = 16;
+
+    @CommandLine.Option(names = "--no-diff-archive", description = "Only write the diff directory, without the patch jar")
+    public boolean noDiffArchive;
+
+    @CommandLine.Option(names = "--in-memory", description = "Pass the remapped classes to the decompiler in memory, and only write the remapped jars in the background")
+    public boolean inMemory;
+
+    @CommandLine.Option(names = "--no-remapped-jar", description = "With --in-memory, don't write the remapped jars at all")
+    public boolean noRemappedJar;
+
+    public Pipeline createPipeline() throws IOException {
+        Path cacheDir = cachePath != null ? cachePath : outputPath.resolve("cache");
+        Download.setMetadataCache(new MetadataCache(cacheDir.resolve("http")));
+        Download.setOffline(offline);
+        var workers = decompileWorkers > 0 ? new DecompileWorker.Options(decompileWorkers, workerHeap, shardSize * 1024 * 1024) : null;
+        Path libraryStore = libraryStorePath != null ? libraryStorePath : LibraryStore.defaultDirectory();
+        return new Pipeline(outputPath, cacheDir, decompileCacheSize * 1024 * 1024, threads, !noDiffArchive, workers, libraryStore, inMemory, !noRemappedJar);
+    }
+}
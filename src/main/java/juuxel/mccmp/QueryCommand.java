@@ -0,0 +1,71 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+
+@CommandLine.Command(name = "query", mixinStandardHelpOptions = true, description = "Lists the changed files of a finished diff using its index")
+public final class QueryCommand implements Runnable {
+    @CommandLine.Parameters(index = "0")
+    public String fromVersion;
+
+    @CommandLine.Parameters(index = "1")
+    public String toVersion;
+
+    @CommandLine.Option(names = {"-o", "--output"})
+    public Path outputPath = Path.of(".");
+
+    @CommandLine.Option(names = {"-p", "--package"}, description = "Only list files in this package and its subpackages")
+    public @Nullable String packageName;
+
+    @CommandLine.Option(names = {"-k", "--kind"}, split = ",", description = "Only list files with these kinds of changes: ${COMPLETION-CANDIDATES}")
+    public List<SourceDiff.ChangeKind> kinds = List.of();
+
+    @CommandLine.Option(names = "--patches", description = "Print the patches of the listed files")
+    public boolean printPatches;
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @Override
+    public void run() {
+        if (!Pipeline.isSafeVersionId(fromVersion) || !Pipeline.isSafeVersionId(toVersion)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Invalid version ID");
+        }
+
+        Path indexPath = outputPath.resolve("diffs").resolve(Pipeline.pairName(fromVersion, toVersion) + ".index");
+
+        if (Files.notExists(indexPath)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "No diff index found for " + fromVersion + "-" + toVersion + " in " + outputPath);
+        }
+
+        try (var index = DiffIndex.open(indexPath)) {
+            var kindSet = kinds.isEmpty() ? EnumSet.noneOf(SourceDiff.ChangeKind.class) : EnumSet.copyOf(kinds);
+            var out = System.out;
+
+            for (var entry : index.query(packageName, kindSet)) {
+                if (printPatches) {
+                    out.print(index.readPatch(entry));
+                } else if (entry.renamedFrom() != null) {
+                    out.printf("%-8s +%-5d -%-5d %s -> %s%n", entry.kind(), entry.addedLines(), entry.removedLines(), entry.renamedFrom(), entry.path());
+                } else {
+                    out.printf("%-8s +%-5d -%-5d %s%n", entry.kind(), entry.addedLines(), entry.removedLines(), entry.path());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
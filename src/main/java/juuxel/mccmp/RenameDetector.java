@@ -0,0 +1,172 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds renamed and moved files between the removed and added files of a diff.
+ *
+ * <p>Each file is summarised by a MinHash signature of its line shingles, which estimates
+ * the Jaccard similarity of two files. The signatures are indexed with locality-sensitive hashing,
+ * so each removed file is only compared with the added files that share a band of its signature
+ * instead of every added file.
+ */
+public final class RenameDetector {
+    /**
+     * The minimum estimated similarity for a pair of files to be considered a rename.
+     */
+    public static final double MIN_SIMILARITY = 0.5;
+
+    private static final int SHINGLE_LINES = 3;
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final int SIGNATURE_SIZE = BANDS * ROWS;
+    private static final long[] SEEDS = createSeeds();
+
+    /**
+     * Computes the signature of a file.
+     *
+     * @param lines the lines of the file
+     * @return the signature, or {@code null} if the file is empty
+     */
+    public static long @Nullable [] signature(List<String> lines) {
+        List<String> normalized = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            // Indentation and blank lines change with the surrounding code, not with the line itself
+            var trimmed = line.strip();
+            if (!trimmed.isEmpty()) normalized.add(trimmed);
+        }
+
+        if (normalized.isEmpty()) return null;
+
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int shingles = Math.max(1, normalized.size() - SHINGLE_LINES + 1);
+
+        for (int i = 0; i < shingles; i++) {
+            long shingle = 0;
+            for (int j = i; j < Math.min(i + SHINGLE_LINES, normalized.size()); j++) {
+                shingle = shingle * 31 + normalized.get(j).hashCode();
+            }
+
+            for (int k = 0; k < SIGNATURE_SIZE; k++) {
+                long hash = mix(shingle ^ SEEDS[k]);
+                if (hash < signature[k]) signature[k] = hash;
+            }
+        }
+
+        return signature;
+    }
+
+    /**
+     * {@return the estimated Jaccard similarity of the files of two signatures}
+     */
+    public static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / SIGNATURE_SIZE;
+    }
+
+    /**
+     * Pairs removed files with added files. Each file is part of at most one pair,
+     * and the most similar pairs are chosen first.
+     *
+     * @param removed the signatures of the removed files
+     * @param added   the signatures of the added files
+     * @return the pairs, as a map from removed files to added files
+     */
+    public static Map<String, Rename> detect(Map<String, long[]> removed, Map<String, long[]> added) {
+        Map<BandKey, List<String>> index = new HashMap<>();
+        added.forEach((file, signature) -> {
+            for (int band = 0; band < BANDS; band++) {
+                index.computeIfAbsent(BandKey.of(signature, band), key -> new ArrayList<>()).add(file);
+            }
+        });
+
+        List<Rename> candidates = new ArrayList<>();
+        removed.forEach((file, signature) -> {
+            Set<String> seen = new HashSet<>();
+
+            for (int band = 0; band < BANDS; band++) {
+                for (String candidate : index.getOrDefault(BandKey.of(signature, band), List.of())) {
+                    if (!seen.add(candidate)) continue;
+
+                    double similarity = similarity(signature, added.get(candidate));
+                    if (similarity >= MIN_SIMILARITY) {
+                        candidates.add(new Rename(file, candidate, similarity));
+                    }
+                }
+            }
+        });
+
+        // Prefer the most similar pairs, then files that kept their name, so that the result doesn't depend on the iteration order
+        candidates.sort(Comparator.comparingDouble(Rename::similarity).reversed()
+            .thenComparing(rename -> !fileName(rename.from()).equals(fileName(rename.to())))
+            .thenComparing(Rename::from)
+            .thenComparing(Rename::to));
+
+        Map<String, Rename> result = new HashMap<>();
+        Set<String> matched = new HashSet<>();
+
+        for (Rename rename : candidates) {
+            if (!result.containsKey(rename.from()) && !matched.contains(rename.to())) {
+                result.put(rename.from(), rename);
+                matched.add(rename.to());
+            }
+        }
+
+        return result;
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    // The finalizer of SplitMix64, used as the hash functions of the signature
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long[] createSeeds() {
+        long[] seeds = new long[SIGNATURE_SIZE];
+        long seed = 0;
+
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            seeds[i] = mix(seed);
+        }
+
+        return seeds;
+    }
+
+    public record Rename(String from, String to, double similarity) {
+    }
+
+    private record BandKey(int band, long hash) {
+        static BandKey of(long[] signature, int band) {
+            long hash = 0;
+            for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+                hash = hash * 31 + signature[i];
+            }
+            return new BandKey(band, hash);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Types;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a warm pipeline running and accepts diff jobs over a local HTTP API.
+ *
+ * <ul>
+ *     <li>{@code POST /jobs?from=<version>&to=<version>} submits a job, or returns the existing job for the pair.
+ *     Finished jobs are forgotten after an hour, but their diffs are reused when they're submitted again.</li>
+ *     <li>{@code GET /jobs/<id>} returns the status of a job</li>
+ *     <li>{@code GET /jobs/<id>/files} lists the patch files of a finished job</li>
+ *     <li>{@code GET /jobs/<id>/files/<path>} returns a patch file</li>
+ *     <li>{@code GET /jobs/<id>/patches.jar} returns the patch jar, unless the server runs with {@code --no-diff-archive}</li>
+ * </ul>
+ */
+@CommandLine.Command(name = "serve", mixinStandardHelpOptions = true, description = "Runs a local HTTP server that accepts diff jobs")
+public final class ServeCommand implements Runnable {
+    private static final JsonAdapter<JobStatus> STATUS_ADAPTER = Download.MOSHI.adapter(JobStatus.class);
+    private static final JsonAdapter<List<String>> FILE_LIST_ADAPTER = Download.MOSHI.adapter(Types.newParameterizedType(List.class, String.class));
+    private static final Duration JOB_RETENTION = Duration.ofHours(1);
+    private static final int MAX_FINISHED_JOBS = 256;
+
+    @CommandLine.Option(names = "--host", description = "The address to listen on")
+    public String host = "127.0.0.1";
+
+    @CommandLine.Option(names = "--port", description = "The port to listen on")
+    public int port = 8080;
+
+    @CommandLine.Mixin
+    public PipelineOptions options = new PipelineOptions();
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private @Nullable Pipeline pipeline;
+
+    @Override
+    public void run() {
+        try (var pipeline = options.createPipeline()) {
+            var server = start(pipeline, new InetSocketAddress(host, port));
+            System.out.println(":listening on http://" + host + ":" + server.getAddress().getPort());
+
+            var stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                stopped.countDown();
+            }));
+            stopped.await();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts a server that runs the jobs with a pipeline.
+     */
+    HttpServer start(Pipeline pipeline, InetSocketAddress address) throws IOException {
+        this.pipeline = pipeline;
+        var server = HttpServer.create(address, 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/jobs", this::handle);
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var path = exchange.getRequestURI().getPath();
+            var segments = path.substring("/jobs".length()).split("/", 4);
+            // segments[0] is always empty since the path starts with a slash
+
+            if (segments.length <= 1 || segments[1].isEmpty()) {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    sendText(exchange, 405, "Method not allowed");
+                    return;
+                }
+
+                var query = parseQuery(exchange.getRequestURI().getRawQuery());
+                var from = query.get("from");
+                var to = query.get("to");
+
+                if (from == null || to == null) {
+                    sendText(exchange, 400, "Missing the 'from' or 'to' parameter");
+                    return;
+                } else if (!Pipeline.isSafeVersionId(from) || !Pipeline.isSafeVersionId(to)) {
+                    sendText(exchange, 400, "Invalid version ID");
+                    return;
+                }
+
+                // Only known versions are accepted, since the IDs are used in file names
+                VersionIndex index;
+                try {
+                    index = pipeline().versionIndex(from, to).join();
+                } catch (CompletionException e) {
+                    sendText(exchange, 502, "Could not load the version manifest: " + e.getCause());
+                    return;
+                }
+
+                if (index.get(from) == null || index.get(to) == null) {
+                    sendText(exchange, 400, "Unknown version");
+                    return;
+                }
+
+                var job = submit(from, to);
+                sendJson(exchange, 202, STATUS_ADAPTER.toJson(job.status()));
+                return;
+            }
+
+            var job = jobs.get(segments[1]);
+            if (job == null) {
+                sendText(exchange, 404, "Unknown job");
+                return;
+            } else if (!exchange.getRequestMethod().equals("GET")) {
+                sendText(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            if (segments.length == 2) {
+                sendJson(exchange, 200, STATUS_ADAPTER.toJson(job.status()));
+                return;
+            } else if (!job.future().isDone() || job.future().isCompletedExceptionally()) {
+                sendText(exchange, 409, "The job has not finished successfully");
+                return;
+            }
+
+            Path diffDir = pipeline().getDiffDirectory(job.from(), job.to());
+
+            switch (segments[2]) {
+                case "patches.jar" -> sendFile(exchange, pipeline().getDiffJar(job.from(), job.to()), "application/java-archive");
+                case "files" -> {
+                    if (segments.length == 3) {
+                        sendJson(exchange, 200, FILE_LIST_ADAPTER.toJson(listFiles(diffDir)));
+                    } else {
+                        var file = diffDir.resolve(segments[3]).normalize();
+                        if (!file.startsWith(diffDir) || !Files.isRegularFile(file)) {
+                            sendText(exchange, 404, "Unknown file");
+                        } else {
+                            sendFile(exchange, file, "text/plain; charset=utf-8");
+                        }
+                    }
+                }
+                default -> sendText(exchange, 404, "Not found");
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            throw e;
+        }
+    }
+
+    private Job submit(String from, String to) {
+        expireJobs();
+        var created = Job.create(getJobId(from, to), from, to);
+        var job = jobs.compute(created.id(), (id, existing) -> {
+            // Failed jobs are retried when they are submitted again
+            if (existing != null && !existing.future().isCompletedExceptionally()) {
+                return existing;
+            }
+
+            return created;
+        });
+
+        if (job != created) return job;
+
+        // The work is started outside the map's lock, since the pipeline might complete it immediately
+        if (isDiffComplete(from, to)) {
+            job.future().complete(pipeline().getDiffDirectory(from, to));
+        } else {
+            System.out.println(":starting job " + job.id() + " (" + from + " -> " + to + ")");
+            pipeline().compare(from, to).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    job.future().completeExceptionally(throwable);
+                } else {
+                    job.future().complete(result);
+                }
+
+                evictCaches();
+            });
+        }
+
+        return job;
+    }
+
+    private boolean isDiffComplete(String from, String to) {
+        try {
+            return pipeline().isDiffComplete(from, to);
+        } catch (IOException e) {
+            // The diff is written again if its marker can't be read
+            System.out.println(":could not check diff " + from + "-" + to + ": " + e);
+            return false;
+        }
+    }
+
+    // A failure to evict the caches doesn't affect the job that just finished
+    private void evictCaches() {
+        try {
+            pipeline().evictCaches();
+        } catch (IOException | RuntimeException e) {
+            System.err.println(":could not evict caches");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forgets jobs that finished more than {@link #JOB_RETENTION} ago, and the oldest finished jobs
+     * if there are more than {@value #MAX_FINISHED_JOBS}. Their diffs stay in the output directory,
+     * so submitting them again completes immediately.
+     */
+    private void expireJobs() {
+        var cutoff = Instant.now().minus(JOB_RETENTION);
+        List<Job> finished = new ArrayList<>();
+
+        for (var job : jobs.values()) {
+            var finishedAt = job.finishedAt().getNow(null);
+            if (finishedAt == null) continue;
+
+            if (finishedAt.isBefore(cutoff)) {
+                jobs.remove(job.id(), job);
+            } else {
+                finished.add(job);
+            }
+        }
+
+        if (finished.size() > MAX_FINISHED_JOBS) {
+            finished.sort(Comparator.comparing(job -> job.finishedAt().join()));
+
+            for (var job : finished.subList(0, finished.size() - MAX_FINISHED_JOBS)) {
+                jobs.remove(job.id(), job);
+            }
+        }
+    }
+
+    private Pipeline pipeline() {
+        if (pipeline == null) throw new IllegalStateException("Server is not running");
+        return pipeline;
+    }
+
+    private static String getJobId(String from, String to) {
+        var digest = ClassGroups.sha256().digest((from + '\0' + to).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, 8);
+    }
+
+    private static List<String> listFiles(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                .map(path -> directory.relativize(path).toString().replace('\\', '/'))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static Map<String, String> parseQuery(@Nullable String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null) return result;
+
+        for (String part : query.split("&")) {
+            var keyValue = part.split("=", 2);
+            var key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
+            var value = keyValue.length == 2 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8) : "";
+            result.put(key, value);
+        }
+
+        return result;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendFile(HttpExchange exchange, Path file, String contentType) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, Files.size(file));
+        Files.copy(file, exchange.getResponseBody());
+    }
+
+    private record Job(String id, String from, String to, CompletableFuture<Path> future, CompletableFuture<Instant> finishedAt) {
+        static Job create(String id, String from, String to) {
+            var future = new CompletableFuture<Path>();
+            return new Job(id, from, to, future, future.handle((result, throwable) -> Instant.now()));
+        }
+
+        JobStatus status() {
+            String status;
+            String error = null;
+
+            if (!future.isDone()) {
+                status = "running";
+            } else if (future.isCompletedExceptionally()) {
+                status = "failed";
+                error = future.exceptionNow().toString();
+            } else {
+                status = "done";
+            }
+
+            return new JobStatus(id, from, to, status, error);
+        }
+    }
+
+    private record JobStatus(String id, String from, String to, String status, @Nullable String error) {
+    }
+}
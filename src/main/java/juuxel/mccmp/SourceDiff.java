@@ -0,0 +1,327 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Diffs two source trees. Both trees are hashed in parallel so that identical files can be skipped
+ * without comparing them, and only the changed files are diffed line by line.
+ * Removed files that are similar to added files are {@linkplain RenameDetector detected as renames}
+ * and diffed against each other.
+ */
+public final class SourceDiff {
+    private static final String NULL_PATH = "/dev/null";
+
+    /**
+     * Diffs two source trees and writes a unified diff for each changed file into a directory,
+     * and optionally into a patch jar and a {@linkplain DiffIndex diff index} in the same pass.
+     *
+     * @param aRoot       the root of the old tree
+     * @param bRoot       the root of the new tree
+     * @param outputDir   the output directory, which is cleared before writing
+     * @param archivePath the patch jar, or {@code null} if it shouldn't be written
+     * @param indexPath   the diff index, or {@code null} if it shouldn't be written
+     * @param pool        the pool used for hashing, diffing and writing the patches
+     * @return a summary of the changes
+     */
+    public static Summary diff(Path aRoot, Path bRoot, Path outputDir, @Nullable Path archivePath, @Nullable Path indexPath, ForkJoinPool pool) throws IOException {
+        var aFiles = listFiles(aRoot);
+        var bFiles = listFiles(bRoot);
+        Map<String, byte[]> aHashes = pool.submit(() -> hashFiles(aRoot, aFiles)).join();
+        Map<String, byte[]> bHashes = pool.submit(() -> hashFiles(bRoot, bFiles)).join();
+
+        Set<String> allFiles = new HashSet<>(aFiles);
+        allFiles.addAll(bFiles);
+        List<String> candidates = new ArrayList<>();
+        List<String> removedFiles = new ArrayList<>();
+        List<String> addedFiles = new ArrayList<>();
+        int unchanged = 0;
+
+        for (String file : allFiles) {
+            if (Arrays.equals(aHashes.get(file), bHashes.get(file))) {
+                unchanged++;
+            } else if (!bHashes.containsKey(file)) {
+                removedFiles.add(file);
+            } else if (!aHashes.containsKey(file)) {
+                addedFiles.add(file);
+            } else {
+                candidates.add(file);
+            }
+        }
+
+        Map<String, RenameDetector.Rename> renames = pool.submit(() -> RenameDetector.detect(
+            signatures(aRoot, removedFiles),
+            signatures(bRoot, addedFiles)
+        )).join();
+        Set<String> renamedTo = renames.values().stream().map(RenameDetector.Rename::to).collect(Collectors.toSet());
+
+        for (String file : removedFiles) {
+            if (!renames.containsKey(file)) candidates.add(file);
+        }
+
+        for (String file : addedFiles) {
+            if (!renamedTo.contains(file)) candidates.add(file);
+        }
+
+        List<Supplier<FilePatch>> tasks = new ArrayList<>();
+        for (String file : candidates) {
+            tasks.add(() -> diffFile(
+                file,
+                aHashes.containsKey(file) ? aRoot.resolve(file) : null,
+                bHashes.containsKey(file) ? bRoot.resolve(file) : null
+            ));
+        }
+
+        for (var rename : renames.values()) {
+            tasks.add(() -> diffRename(rename, aRoot.resolve(rename.from()), bRoot.resolve(rename.to())));
+        }
+
+        MoreFiles.deleteRecursively(outputDir);
+        Files.createDirectories(outputDir);
+        @Nullable ZipOutputStream archive = null;
+
+        if (archivePath != null) {
+            Files.createDirectories(archivePath.getParent());
+            archive = new ZipOutputStream(Files.newOutputStream(archivePath));
+        }
+
+        try (var index = indexPath != null ? new DiffIndex.Writer(indexPath) : null) {
+            var archiveOut = archive;
+            List<FilePatch> patches = pool.submit(() -> tasks.parallelStream()
+                .map(task -> {
+                    var patch = task.get();
+
+                    try {
+                        writePatch(patch, outputDir, archiveOut, index);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                    // Only keep the statistics, the text has been written
+                    return patch.withoutText();
+                })
+                .toList()
+            ).join();
+
+            if (index != null) {
+                index.finish();
+            }
+
+            return Summary.of(unchanged, patches);
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+    }
+
+    private static void writePatch(FilePatch patch, Path outputDir, @Nullable ZipOutputStream archive, DiffIndex.@Nullable Writer index) throws IOException {
+        var patchName = patch.path() + ".patch";
+        byte[] bytes = patch.text().getBytes(StandardCharsets.UTF_8);
+        var target = outputDir.resolve(patchName);
+        Files.createDirectories(target.getParent());
+        Files.write(target, bytes);
+
+        if (archive != null) {
+            synchronized (archive) {
+                archive.putNextEntry(new ZipEntry(patchName));
+                archive.write(bytes);
+                archive.closeEntry();
+            }
+        }
+
+        if (index != null) {
+            index.add(patch, bytes);
+        }
+    }
+
+    private static List<String> listFiles(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                .map(path -> root.relativize(path).toString().replace('\\', '/'))
+                .toList();
+        }
+    }
+
+    private static Map<String, byte[]> hashFiles(Path root, List<String> files) {
+        return files.parallelStream()
+            .collect(Collectors.toConcurrentMap(Function.identity(), file -> {
+                try {
+                    return ClassGroups.sha256().digest(Files.readAllBytes(root.resolve(file)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+    }
+
+    private static Map<String, long[]> signatures(Path root, List<String> files) {
+        Map<String, long[]> result = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> {
+            try {
+                var text = readText(root.resolve(file));
+                // Binary and empty files aren't considered for renames
+                var signature = text != null ? RenameDetector.signature(text.lines()) : null;
+                if (signature != null) result.put(file, signature);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return result;
+    }
+
+    static FilePatch diffFile(String file, @Nullable Path a, @Nullable Path b) {
+        try {
+            var aName = a != null ? "a/" + file : NULL_PATH;
+            var bName = b != null ? "b/" + file : NULL_PATH;
+            var aText = readText(a);
+            var bText = readText(b);
+            var kind = a == null ? ChangeKind.ADDED : b == null ? ChangeKind.REMOVED : ChangeKind.CHANGED;
+
+            if (aText == null || bText == null) {
+                return new FilePatch(file, null, kind, "Binary files " + aName + " and " + bName + " differ\n", 0, 0);
+            }
+
+            var changes = LineDiff.diff(aText, bText);
+            var text = LineDiff.format(aName, bName, aText, bText, changes);
+            return new FilePatch(file, null, kind, text, LineDiff.addedLines(changes), LineDiff.removedLines(changes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Diffs a renamed file against its old version. The patch starts with a {@code diff --git} line and Git's rename headers,
+     * and only has hunks if the contents have changed.
+     */
+    static FilePatch diffRename(RenameDetector.Rename rename, Path a, Path b) {
+        try {
+            var aText = Objects.requireNonNull(readText(a));
+            var bText = Objects.requireNonNull(readText(b));
+            var changes = LineDiff.diff(aText, bText);
+
+            // Git only reads the extended headers after a diff --git line
+            var text = new StringBuilder()
+                .append("diff --git a/").append(rename.from()).append(" b/").append(rename.to()).append('\n')
+                .append("similarity index ").append(Math.round(rename.similarity() * 100)).append("%\n")
+                .append("rename from ").append(rename.from()).append('\n')
+                .append("rename to ").append(rename.to()).append('\n');
+
+            if (!changes.isEmpty()) {
+                text.append(LineDiff.format("a/" + rename.from(), "b/" + rename.to(), aText, bText, changes));
+            }
+
+            return new FilePatch(rename.to(), rename.from(), ChangeKind.RENAMED, text.toString(), LineDiff.addedLines(changes), LineDiff.removedLines(changes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a text file.
+     *
+     * @return the text, an empty text if the path is null, or null if the file is not valid UTF-8
+     */
+    private static LineDiff.@Nullable Text readText(@Nullable Path path) throws IOException {
+        if (path == null) return LineDiff.Text.EMPTY;
+
+        var decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        try {
+            return LineDiff.Text.of(decoder.decode(ByteBuffer.wrap(Files.readAllBytes(path))).toString());
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    public enum ChangeKind {
+        ADDED,
+        REMOVED,
+        CHANGED,
+        RENAMED,
+    }
+
+    /**
+     * @param path        the path of the file, which is the new path of a renamed file
+     * @param renamedFrom the old path of a renamed file, or {@code null} for other files
+     */
+    public record FilePatch(String path, @Nullable String renamedFrom, ChangeKind kind, String text, int addedLines, int removedLines) {
+        FilePatch withoutText() {
+            return new FilePatch(path, renamedFrom, kind, "", addedLines, removedLines);
+        }
+    }
+
+    /**
+     * The number of files and lines that changed in a diff.
+     *
+     * <p>Unlike DiffPatch's summary, which this replaces, renamed files are counted separately instead of
+     * as a removed and an added file, and the lines of a renamed file only count its changes.
+     */
+    public record Summary(int unchanged, int changed, int added, int removed, int renamed, long addedLines, long removedLines) {
+        static Summary of(int unchanged, List<FilePatch> patches) {
+            int changed = 0;
+            int added = 0;
+            int removed = 0;
+            int renamed = 0;
+            long addedLines = 0;
+            long removedLines = 0;
+
+            for (FilePatch patch : patches) {
+                switch (patch.kind()) {
+                    case ADDED -> added++;
+                    case REMOVED -> removed++;
+                    case CHANGED -> changed++;
+                    case RENAMED -> renamed++;
+                }
+
+                addedLines += patch.addedLines();
+                removedLines += patch.removedLines();
+            }
+
+            return new Summary(unchanged, changed, added, removed, renamed, addedLines, removedLines);
+        }
+
+        /**
+         * Prints the summary with one {@code <label>: <count>} line for each number.
+         */
+        public void print(PrintStream out) {
+            out.println("Unchanged files: " + unchanged);
+            out.println("Changed files:   " + changed);
+            out.println("Added files:     " + added);
+            out.println("Removed files:   " + removed);
+            out.println("Renamed files:   " + renamed);
+            out.println("Added lines:     " + addedLines);
+            out.println("Removed lines:   " + removedLines);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Records the inputs that the output of a pipeline stage was produced from, such as input hashes,
+ * tool versions and options. The manifest is stored next to the output in a {@code .inputs} file.
+ *
+ * <p>An output is only reused if its manifest lists exactly the same inputs. The manifest is deleted
+ * before a stage starts writing its output and only written once the stage has succeeded, so a half-written
+ * output or one produced by an older version of a tool is never reused.
+ */
+public final class StageManifest {
+    private static final String STAGE_KEY = "stage";
+    private static final String OUTPUT_SIZE_KEY = "output.size";
+    private static final String INPUT_PREFIX = "input.";
+
+    private final String stage;
+    private final Path output;
+    private final Map<String, String> inputs = new TreeMap<>();
+
+    /**
+     * @param stage  the name of the stage
+     * @param output the main output file or directory of the stage
+     */
+    public StageManifest(String stage, Path output) {
+        this.stage = stage;
+        this.output = output;
+    }
+
+    public StageManifest input(String name, Object value) {
+        inputs.put(name, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Adds the SHA-1 hash of a file as an input.
+     */
+    public StageManifest inputFile(String name, Path file) throws IOException {
+        return input(name, Download.sha1(file));
+    }
+
+    /**
+     * Adds the version of a dependency as an input.
+     *
+     * @param module the module name of the dependency
+     */
+    public StageManifest tool(String module) {
+        return input("tool." + module, ToolVersions.of(module));
+    }
+
+    /**
+     * Adds the hash of the project's own classes that produce the output as an input.
+     */
+    public StageManifest code(String name, Class<?>... classes) {
+        return input("code." + name, ToolVersions.hash(classes));
+    }
+
+    public Path output() {
+        return output;
+    }
+
+    /**
+     * {@return the path of the manifest file}
+     */
+    public Path path() {
+        return output.resolveSibling(output.getFileName() + ".inputs");
+    }
+
+    /**
+     * {@return whether the output exists and has been produced from the same inputs}
+     */
+    public boolean isUpToDate() throws IOException {
+        Path path = path();
+        if (Files.notExists(path) || Files.notExists(output)) return false;
+
+        var properties = new Properties();
+        try (var reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+
+        if (!stage.equals(properties.getProperty(STAGE_KEY))) return false;
+
+        // Catches outputs that have been modified or truncated after the stage finished
+        var outputSize = properties.getProperty(OUTPUT_SIZE_KEY);
+        if (outputSize != null && (!Files.isRegularFile(output) || Files.size(output) != Long.parseLong(outputSize))) return false;
+
+        Map<String, String> recorded = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(INPUT_PREFIX)) {
+                recorded.put(key.substring(INPUT_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+
+        return recorded.equals(inputs);
+    }
+
+    /**
+     * Deletes the manifest, marking the output as incomplete.
+     */
+    public void invalidate() throws IOException {
+        Files.deleteIfExists(path());
+    }
+
+    /**
+     * Writes the manifest, marking the output as complete.
+     */
+    public void commit() throws IOException {
+        var properties = new Properties();
+        properties.setProperty(STAGE_KEY, stage);
+        if (Files.isRegularFile(output)) properties.setProperty(OUTPUT_SIZE_KEY, String.valueOf(Files.size(output)));
+        inputs.forEach((name, value) -> properties.setProperty(INPUT_PREFIX + name, value));
+
+        Path path = path();
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        try {
+            try (var writer = Files.newBufferedWriter(temp)) {
+                properties.store(writer, null);
+            }
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Runs a stage unless its output is up to date, and commits the output once the stage has succeeded.
+     *
+     * @return {@code true} if the stage was run, {@code false} if the output was reused
+     */
+    public boolean run(Action action) throws IOException {
+        if (isUpToDate()) return false;
+
+        invalidate();
+        action.run();
+        commit();
+        return true;
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tasks of a pipeline as soon as their inputs are ready, limiting the number of CPUs
+ * used by concurrently running tasks, and records when each task started and finished.
+ *
+ * <p>Dependencies between tasks are expressed by composing the returned futures.
+ * Only the timings of the latest {@value #MAX_TIMINGS} tasks are kept, since a server runs tasks indefinitely.
+ */
+public final class TaskScheduler implements AutoCloseable {
+    private static final int MAX_TIMINGS = 10_000;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final int cpuBudget;
+    private final Semaphore cpus;
+    private final long startTime = System.nanoTime();
+    private final ArrayDeque<Timing> timings = new ArrayDeque<>();
+    private long droppedTimings;
+
+    public TaskScheduler(int cpuBudget) {
+        this.cpuBudget = Math.max(1, cpuBudget);
+        this.cpus = new Semaphore(this.cpuBudget, true);
+    }
+
+    public int cpuBudget() {
+        return cpuBudget;
+    }
+
+    /**
+     * Submits a CPU-bound task.
+     *
+     * @param name the name of the task
+     * @param cpus the number of CPUs that the task wants to use, capped to the budget
+     * @param task the task, which receives the number of CPUs it has been granted
+     * @return a future that completes with the result of the task
+     */
+    public <T> CompletableFuture<T> submit(String name, int cpus, Task<T> task) {
+        int permits = Math.max(1, Math.min(cpus, cpuBudget));
+        long queued = System.nanoTime();
+
+        return CompletableFuture.supplyAsync(() -> {
+            this.cpus.acquireUninterruptibly(permits);
+            long start = System.nanoTime();
+            var event = new Metrics.StageEvent();
+            event.begin();
+
+            try {
+                return task.run(permits);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                this.cpus.release(permits);
+                record(new Timing(name, permits, queued, start, System.nanoTime()), event);
+            }
+        }, executor);
+    }
+
+    /**
+     * Tracks the timing of an I/O-bound asynchronous task, such as a download.
+     * These tasks don't count towards the CPU budget.
+     */
+    public <T> CompletableFuture<T> track(String name, Supplier<CompletableFuture<T>> task) {
+        long start = System.nanoTime();
+        var event = new Metrics.StageEvent();
+        event.begin();
+        return task.get().whenComplete((result, throwable) -> record(new Timing(name, 0, start, start, System.nanoTime()), event));
+    }
+
+    private void record(Timing timing, Metrics.StageEvent event) {
+        synchronized (timings) {
+            if (timings.size() == MAX_TIMINGS) {
+                timings.removeFirst();
+                droppedTimings++;
+            }
+
+            timings.addLast(timing);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.name = timing.name();
+            event.cpus = timing.cpus();
+            event.commit();
+        }
+    }
+
+    public double elapsedSeconds() {
+        return seconds(System.nanoTime() - startTime);
+    }
+
+    /**
+     * {@return the timings of the finished tasks, ordered by their start time}
+     */
+    public List<Metrics.StageReport> stageReports() {
+        return sortedTimings()
+            .stream()
+            .map(timing -> new Metrics.StageReport(
+                timing.name(),
+                timing.cpus(),
+                seconds(timing.start() - startTime),
+                seconds(timing.end() - timing.start()),
+                seconds(timing.start() - timing.queued())
+            ))
+            .toList();
+    }
+
+    private List<Timing> sortedTimings() {
+        List<Timing> sorted;
+        synchronized (timings) {
+            sorted = new ArrayList<>(timings);
+        }
+        sorted.sort(Comparator.comparingLong(Timing::start));
+        return sorted;
+    }
+
+    public void printTimeline(PrintStream out) {
+        List<Timing> sorted = sortedTimings();
+        int nameWidth = sorted.stream().mapToInt(timing -> timing.name().length()).max().orElse(0);
+        long dropped;
+        synchronized (timings) {
+            dropped = droppedTimings;
+        }
+
+        out.println(":timeline");
+        if (dropped > 0) {
+            out.printf("  (%d earlier tasks omitted)%n", dropped);
+        }
+        for (Timing timing : sorted) {
+            out.printf(
+                "  %-" + nameWidth + "s  start %8.3fs  end %8.3fs  took %8.3fs  waited %8.3fs%n",
+                timing.name(),
+                seconds(timing.start() - startTime),
+                seconds(timing.end() - startTime),
+                seconds(timing.end() - timing.start()),
+                seconds(timing.start() - timing.queued())
+            );
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(int cpus) throws Exception;
+    }
+
+    private record Timing(String name, int cpus, long queued, long start, long end) {
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Identifies the versions of the tools that produce cached outputs.
+ *
+ * <p>The versions of the dependencies are generated into {@code tool-versions.properties} by the build,
+ * since they can't be read from the jar manifests of a shadow jar. The project's own code doesn't have a
+ * meaningful version during development, so it's identified by the hash of its class files instead.
+ */
+public final class ToolVersions {
+    private static final Properties VERSIONS = loadVersions();
+
+    /**
+     * {@return the version of a dependency as resolved by the build}
+     *
+     * @param module the module name of the dependency, such as {@code vineflower}
+     */
+    public static String of(String module) {
+        var version = VERSIONS.getProperty(module);
+        if (version == null) throw new IllegalArgumentException("Unknown tool: " + module);
+        return version;
+    }
+
+    /**
+     * {@return the hash of the class files of some classes and their nested classes}
+     */
+    public static String hash(Class<?>... classes) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1");
+            for (Class<?> c : classes) {
+                hashClass(c, digest);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void hashClass(Class<?> c, MessageDigest digest) throws IOException {
+        var name = c.getName();
+        try (InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null) throw new IOException("Could not find the class file of " + name);
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update(in.readAllBytes());
+        }
+
+        for (Class<?> nested : c.getDeclaredClasses()) {
+            hashClass(nested, digest);
+        }
+    }
+
+    private static Properties loadVersions() {
+        var properties = new Properties();
+
+        try (InputStream in = ToolVersions.class.getResourceAsStream("tool-versions.properties")) {
+            if (in == null) throw new IllegalStateException("tool-versions.properties is missing, it's generated by the build");
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return properties;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import juuxel.mccmp.data.GlobalManifest;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent index of the versions in the global manifest, ordered from the oldest to the newest.
+ * Looking up a version or its position doesn't need the manifest to be downloaded or parsed.
+ *
+ * <p>The index is stored as a small binary file that is replaced atomically
+ * whenever a new global manifest is {@linkplain #update loaded}. Properties that
+ * are missing from the manifest are stored with a presence flag.
+ */
+public final class VersionIndex {
+    private static final int MAGIC = 0x6D63_7669; // "mcvi"
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path file;
+    private volatile Snapshot snapshot;
+
+    public VersionIndex(Path file) {
+        this.file = file;
+        this.snapshot = load(file);
+    }
+
+    public boolean isEmpty() {
+        return snapshot.versions().isEmpty();
+    }
+
+    public @Nullable Entry get(String id) {
+        var current = snapshot;
+        var position = current.positions().get(id);
+        return position != null ? current.versions().get(position) : null;
+    }
+
+    /**
+     * {@return the position of a version in the release order, or -1 if it's not indexed}
+     */
+    public int indexOf(String id) {
+        return snapshot.positions().getOrDefault(id, -1);
+    }
+
+    /**
+     * {@return all indexed versions, from the oldest to the newest}
+     */
+    public List<Entry> versions() {
+        return snapshot.versions();
+    }
+
+    /**
+     * Replaces the index with the versions of a global manifest.
+     */
+    public void update(GlobalManifest manifest) throws IOException {
+        // The manifest lists the newest versions first
+        List<Entry> versions = new ArrayList<>(manifest.versions().size());
+        for (var version : manifest.versions().reversed()) {
+            // A version without an ID can't be looked up
+            if (version.id() == null) continue;
+            versions.add(new Entry(version.id(), version.type(), version.url(), version.releaseTime()));
+        }
+
+        var updated = new Snapshot(versions);
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(versions.size());
+
+            for (Entry entry : versions) {
+                out.writeUTF(entry.id());
+                writeNullable(out, entry.type());
+                writeNullable(out, entry.url());
+                writeNullable(out, entry.releaseTime());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshot = updated;
+    }
+
+    private static Snapshot load(Path file) {
+        if (Files.notExists(file)) return new Snapshot(List.of());
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.println(":ignoring version index with an unknown format");
+                return new Snapshot(List.of());
+            }
+
+            int count = in.readInt();
+            List<Entry> versions = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                versions.add(new Entry(in.readUTF(), readNullable(in), readNullable(in), readNullable(in)));
+            }
+
+            return new Snapshot(versions);
+        } catch (IOException e) {
+            // A broken index is rebuilt from the next global manifest
+            System.out.println(":could not read version index: " + e);
+            return new Snapshot(List.of());
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static @Nullable String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @param type        the type of the version, such as {@code release} or {@code snapshot}, or {@code null} if it's missing from the manifest
+     * @param url         the URL of the version manifest, or {@code null} if it's missing from the manifest
+     * @param releaseTime the release time of the version, or {@code null} if it's missing from the manifest
+     */
+    public record Entry(String id, @Nullable String type, @Nullable String url, @Nullable String releaseTime) {
+    }
+
+    private record Snapshot(List<Entry> versions, Map<String, Integer> positions) {
+        Snapshot(List<Entry> versions) {
+            this(List.copyOf(versions), positionsOf(versions));
+        }
+
+        private static Map<String, Integer> positionsOf(List<Entry> versions) {
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < versions.size(); i++) {
+                positions.put(versions.get(i).id(), i);
+            }
+            return positions;
+        }
+    }
+}
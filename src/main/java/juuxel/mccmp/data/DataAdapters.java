@@ -0,0 +1,336 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp.data;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written JSON adapters for the data records, so that they're read without reflection.
+ * Unknown properties are skipped, and missing properties are read as {@code null} like Moshi's record adapters do.
+ */
+public final class DataAdapters {
+    private static final JsonAdapter<GlobalManifest.Version> GLOBAL_MANIFEST_VERSION = new ObjectAdapter<>("id", "type", "url", "releaseTime") {
+        @Override
+        GlobalManifest.Version read(JsonReader reader) throws IOException {
+            String id = null, type = null, url = null, releaseTime = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(names)) {
+                    case 0 -> id = readString(reader);
+                    case 1 -> type = readString(reader);
+                    case 2 -> url = readString(reader);
+                    case 3 -> releaseTime = readString(reader);
+                    default -> skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new GlobalManifest.Version(id, type, url, releaseTime);
+        }
+
+        @Override
+        void write(JsonWriter writer, GlobalManifest.Version value) throws IOException {
+            writer.name("id").value(value.id());
+            writer.name("type").value(value.type());
+            writer.name("url").value(value.url());
+            writer.name("releaseTime").value(value.releaseTime());
+        }
+    };
+
+    private static final JsonAdapter<GlobalManifest> GLOBAL_MANIFEST = new ObjectAdapter<>("versions") {
+        @Override
+        GlobalManifest read(JsonReader reader) throws IOException {
+            List<GlobalManifest.Version> versions = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.selectName(names) == 0) {
+                    versions = readList(reader, GLOBAL_MANIFEST_VERSION);
+                } else {
+                    skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new GlobalManifest(versions);
+        }
+
+        @Override
+        void write(JsonWriter writer, GlobalManifest value) throws IOException {
+            writer.name("versions");
+            writeList(writer, GLOBAL_MANIFEST_VERSION, value.versions());
+        }
+    };
+
+    private static final JsonAdapter<VersionManifest.Download> DOWNLOAD = new ObjectAdapter<>("url", "sha1", "size") {
+        @Override
+        VersionManifest.Download read(JsonReader reader) throws IOException {
+            String url = null, sha1 = null;
+            Long size = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(names)) {
+                    case 0 -> url = readString(reader);
+                    case 1 -> sha1 = readString(reader);
+                    case 2 -> size = readLong(reader);
+                    default -> skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new VersionManifest.Download(url, sha1, size);
+        }
+
+        @Override
+        void write(JsonWriter writer, VersionManifest.Download value) throws IOException {
+            writer.name("url").value(value.url());
+            writer.name("sha1").value(value.sha1());
+            writer.name("size").value(value.size());
+        }
+    };
+
+    private static final JsonAdapter<VersionManifest.Library.Artifact> ARTIFACT = new ObjectAdapter<>("path", "url", "sha1", "size") {
+        @Override
+        VersionManifest.Library.Artifact read(JsonReader reader) throws IOException {
+            String path = null, url = null, sha1 = null;
+            Long size = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(names)) {
+                    case 0 -> path = readString(reader);
+                    case 1 -> url = readString(reader);
+                    case 2 -> sha1 = readString(reader);
+                    case 3 -> size = readLong(reader);
+                    default -> skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new VersionManifest.Library.Artifact(path, url, sha1, size);
+        }
+
+        @Override
+        void write(JsonWriter writer, VersionManifest.Library.Artifact value) throws IOException {
+            writer.name("path").value(value.path());
+            writer.name("url").value(value.url());
+            writer.name("sha1").value(value.sha1());
+            writer.name("size").value(value.size());
+        }
+    };
+
+    private static final JsonAdapter<VersionManifest.Library.Downloads> LIBRARY_DOWNLOADS = new ObjectAdapter<>("artifact") {
+        @Override
+        VersionManifest.Library.Downloads read(JsonReader reader) throws IOException {
+            VersionManifest.Library.Artifact artifact = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.selectName(names) == 0) {
+                    artifact = ARTIFACT.fromJson(reader);
+                } else {
+                    skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new VersionManifest.Library.Downloads(artifact);
+        }
+
+        @Override
+        void write(JsonWriter writer, VersionManifest.Library.Downloads value) throws IOException {
+            writer.name("artifact");
+            ARTIFACT.toJson(writer, value.artifact());
+        }
+    };
+
+    private static final JsonAdapter<VersionManifest.Library> LIBRARY = new ObjectAdapter<>("name", "downloads") {
+        @Override
+        VersionManifest.Library read(JsonReader reader) throws IOException {
+            String name = null;
+            VersionManifest.Library.Downloads downloads = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(names)) {
+                    case 0 -> name = readString(reader);
+                    case 1 -> downloads = LIBRARY_DOWNLOADS.fromJson(reader);
+                    default -> skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new VersionManifest.Library(name, downloads);
+        }
+
+        @Override
+        void write(JsonWriter writer, VersionManifest.Library value) throws IOException {
+            writer.name("name").value(value.name());
+            writer.name("downloads");
+            LIBRARY_DOWNLOADS.toJson(writer, value.downloads());
+        }
+    };
+
+    private static final JsonAdapter<VersionManifest> VERSION_MANIFEST = new ObjectAdapter<>("id", "downloads", "libraries") {
+        @Override
+        VersionManifest read(JsonReader reader) throws IOException {
+            String id = null;
+            Map<String, VersionManifest.Download> downloads = null;
+            List<VersionManifest.Library> libraries = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(names)) {
+                    case 0 -> id = readString(reader);
+                    case 1 -> {
+                        downloads = new LinkedHashMap<>();
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            downloads.put(reader.nextName(), DOWNLOAD.fromJson(reader));
+                        }
+                        reader.endObject();
+                    }
+                    case 2 -> libraries = readList(reader, LIBRARY);
+                    default -> skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new VersionManifest(id, downloads, libraries);
+        }
+
+        @Override
+        void write(JsonWriter writer, VersionManifest value) throws IOException {
+            writer.name("id").value(value.id());
+            writer.name("downloads").beginObject();
+            for (var entry : value.downloads().entrySet()) {
+                writer.name(entry.getKey());
+                DOWNLOAD.toJson(writer, entry.getValue());
+            }
+            writer.endObject();
+            writer.name("libraries");
+            writeList(writer, LIBRARY, value.libraries());
+        }
+    };
+
+    private static final JsonAdapter<YarnVersion> YARN_VERSION = new ObjectAdapter<>("version") {
+        @Override
+        YarnVersion read(JsonReader reader) throws IOException {
+            String version = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.selectName(names) == 0) {
+                    version = readString(reader);
+                } else {
+                    skip(reader);
+                }
+            }
+            reader.endObject();
+
+            return new YarnVersion(version);
+        }
+
+        @Override
+        void write(JsonWriter writer, YarnVersion value) throws IOException {
+            writer.name("version").value(value.version());
+        }
+    };
+
+    // Declared after the adapters, which are null-safe already
+    public static final JsonAdapter.Factory FACTORY = (type, annotations, moshi) -> {
+        if (!annotations.isEmpty()) return null;
+        if (type == GlobalManifest.class) return GLOBAL_MANIFEST;
+        if (type == GlobalManifest.Version.class) return GLOBAL_MANIFEST_VERSION;
+        if (type == VersionManifest.class) return VERSION_MANIFEST;
+        if (type == VersionManifest.Download.class) return DOWNLOAD;
+        if (type == VersionManifest.Library.class) return LIBRARY;
+        if (type == VersionManifest.Library.Downloads.class) return LIBRARY_DOWNLOADS;
+        if (type == VersionManifest.Library.Artifact.class) return ARTIFACT;
+        if (type == YarnVersion.class) return YARN_VERSION;
+        return null;
+    };
+
+    private static @Nullable String readString(JsonReader reader) throws IOException {
+        return reader.peek() == JsonReader.Token.NULL ? reader.nextNull() : reader.nextString();
+    }
+
+    private static @Nullable Long readLong(JsonReader reader) throws IOException {
+        return reader.peek() == JsonReader.Token.NULL ? reader.nextNull() : reader.nextLong();
+    }
+
+    private static void skip(JsonReader reader) throws IOException {
+        reader.skipName();
+        reader.skipValue();
+    }
+
+    private static <T> @Nullable List<T> readList(JsonReader reader, JsonAdapter<T> elementAdapter) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) return reader.nextNull();
+
+        List<T> result = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            result.add(elementAdapter.fromJson(reader));
+        }
+        reader.endArray();
+        return result;
+    }
+
+    private static <T> void writeList(JsonWriter writer, JsonAdapter<T> elementAdapter, @Nullable List<T> list) throws IOException {
+        if (list == null) {
+            writer.nullValue();
+            return;
+        }
+
+        writer.beginArray();
+        for (T element : list) {
+            elementAdapter.toJson(writer, element);
+        }
+        writer.endArray();
+    }
+
+    private abstract static class ObjectAdapter<T> extends JsonAdapter<T> {
+        final JsonReader.Options names;
+
+        ObjectAdapter(String... names) {
+            this.names = JsonReader.Options.of(names);
+        }
+
+        abstract T read(JsonReader reader) throws IOException;
+
+        abstract void write(JsonWriter writer, T value) throws IOException;
+
+        @Override
+        public @Nullable T fromJson(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonReader.Token.NULL) return reader.nextNull();
+            return read(reader);
+        }
+
+        @Override
+        public void toJson(JsonWriter writer, @Nullable T value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+                return;
+            }
+
+            writer.beginObject();
+            write(writer, value);
+            writer.endObject();
+        }
+    }
+}
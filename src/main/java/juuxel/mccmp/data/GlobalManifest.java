@@ -6,9 +6,11 @@
 
 package juuxel.mccmp.data;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.List;
 
 public record GlobalManifest(List<Version> versions) {
-    public record Version(String id, String url) {
+    public record Version(String id, @Nullable String type, @Nullable String url, @Nullable String releaseTime) {
     }
 }
@@ -6,18 +6,20 @@
 
 package juuxel.mccmp.data;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.List;
 import java.util.Map;
 
 public record VersionManifest(String id, Map<String, Download> downloads, List<Library> libraries) {
-    public record Download(String url) {
+    public record Download(String url, @Nullable String sha1, @Nullable Long size) {
     }
 
     public record Library(String name, Downloads downloads) {
         public record Downloads(Artifact artifact) {
         }
 
-        public record Artifact(String path, String url) {
+        public record Artifact(String path, String url, @Nullable String sha1, @Nullable Long size) {
         }
     }
 }
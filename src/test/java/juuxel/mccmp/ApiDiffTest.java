@@ -0,0 +1,215 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class ApiDiffTest {
+    private static final int PUBLIC_CLASS = Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void findsAddedAndRemovedClasses() {
+        var report = diff(
+            jar(classFile("a/Kept", PUBLIC_CLASS), classFile("a/Removed", PUBLIC_CLASS)),
+            jar(classFile("a/Kept", PUBLIC_CLASS), classFile("a/Added", PUBLIC_CLASS), classFile("a/Synthetic", PUBLIC_CLASS | Opcodes.ACC_SYNTHETIC))
+        );
+
+        assertEquals(List.of("a/Added"), report.addedClasses());
+        assertEquals(List.of("a/Removed"), report.removedClasses());
+        assertEquals(List.of(), report.changedClasses());
+    }
+
+    @Test
+    void findsNoChangesInIdenticalClasses() {
+        Consumer<ClassWriter> members = writer -> {
+            writer.visitField(Opcodes.ACC_PRIVATE, "value", "I", null, null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC, "get", "()I", null, null);
+        };
+
+        assertTrue(diff(jar(classFile("A", PUBLIC_CLASS, members)), jar(classFile("A", PUBLIC_CLASS, members))).isEmpty());
+    }
+
+    @Test
+    void findsAddedRemovedAndChangedMembers() {
+        var a = classFile("A", PUBLIC_CLASS, writer -> {
+            writer.visitField(Opcodes.ACC_PRIVATE, "removed", "I", null, null);
+            writer.visitField(Opcodes.ACC_PUBLIC, "list", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC, "overloaded", "(I)V", null, null);
+        });
+        var b = classFile("A", PUBLIC_CLASS, writer -> {
+            writer.visitField(Opcodes.ACC_PUBLIC, "list", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/Integer;>;", null);
+            writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "added", "J", null, null);
+            writer.visitMethod(Opcodes.ACC_PROTECTED | Opcodes.ACC_SYNCHRONIZED, "run", "()V", null, null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC, "overloaded", "(I)V", null, null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC, "overloaded", "(J)V", null, null);
+        });
+
+        var change = diff(jar(a), jar(b)).changedClasses().getFirst();
+
+        assertEquals("A", change.name());
+        assertEquals(List.of(), change.changes());
+        assertEquals(List.of("field added:J", "method overloaded(J)V"), change.addedMembers());
+        assertEquals(List.of("field removed:I"), change.removedMembers());
+        assertEquals(List.of(
+            new ApiDiff.MemberChange("field list:Ljava/util/List;", List.of(
+                "signature: Ljava/util/List<Ljava/lang/String;>; -> Ljava/util/List<Ljava/lang/Integer;>;"
+            )),
+            new ApiDiff.MemberChange("method run()V", List.of("access: public -> protected synchronized"))
+        ), change.changedMembers());
+    }
+
+    @Test
+    void findsChangedClassHeaders() {
+        var a = classFile("A", PUBLIC_CLASS, null, "java/lang/Object", new String[] { "java/lang/Runnable" }, writer -> { });
+        var b = classFile(
+            "A",
+            PUBLIC_CLASS | Opcodes.ACC_ABSTRACT,
+            "<T:Ljava/lang/Object;>Ljava/util/AbstractList<TT;>;Ljava/lang/Runnable;",
+            "java/util/AbstractList",
+            new String[] { "java/lang/Runnable" },
+            writer -> writer.visitAnnotation("Ljava/lang/Deprecated;", true)
+        );
+
+        var change = diff(jar(a), jar(b)).changedClasses().getFirst();
+
+        assertEquals(List.of(
+            "access: public -> public abstract",
+            "signature: null -> <T:Ljava/lang/Object;>Ljava/util/AbstractList<TT;>;Ljava/lang/Runnable;",
+            "superclass: java/lang/Object -> java/util/AbstractList",
+            "annotations: [] -> [Ljava/lang/Deprecated;]"
+        ), change.changes());
+    }
+
+    @Test
+    void ignoresTheOrderOfInterfacesAndMembers() {
+        var a = classFile("A", PUBLIC_CLASS, null, "java/lang/Object", new String[] { "a/I", "a/J" }, writer -> {
+            writer.visitField(Opcodes.ACC_PUBLIC, "x", "I", null, null);
+            writer.visitField(Opcodes.ACC_PUBLIC, "y", "I", null, null);
+        });
+        var b = classFile("A", PUBLIC_CLASS, null, "java/lang/Object", new String[] { "a/J", "a/I" }, writer -> {
+            writer.visitField(Opcodes.ACC_PUBLIC, "y", "I", null, null);
+            writer.visitField(Opcodes.ACC_PUBLIC, "x", "I", null, null);
+        });
+
+        assertTrue(diff(jar(a), jar(b)).isEmpty());
+    }
+
+    @Test
+    void distinguishesFlagsThatShareBits() {
+        // ACC_SUPER on classes and ACC_SYNCHRONIZED on methods are both 0x20, and ACC_VOLATILE on fields and ACC_BRIDGE on methods are both 0x40
+        var a = classFile("A", Opcodes.ACC_PUBLIC, writer -> writer.visitField(Opcodes.ACC_PUBLIC, "x", "I", null, null));
+        var b = classFile("A", PUBLIC_CLASS, writer -> writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_VOLATILE, "x", "I", null, null));
+
+        var change = diff(jar(a), jar(b)).changedClasses().getFirst();
+
+        assertEquals(List.of(), change.changes());
+        assertEquals(List.of(new ApiDiff.MemberChange("field x:I", List.of("access: public -> public volatile"))), change.changedMembers());
+    }
+
+    @Test
+    void ignoresSyntheticAndBridgeMembers() {
+        var a = classFile("A", PUBLIC_CLASS, writer -> { });
+        var b = classFile("A", PUBLIC_CLASS, writer -> {
+            writer.visitField(Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL, "this$0", "LB;", null, null);
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE, "get", "()Ljava/lang/Object;", null, null);
+            writer.visitMethod(Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, "lambda$run$0", "()V", null, null);
+        });
+
+        assertTrue(diff(jar(a), jar(b)).isEmpty());
+    }
+
+    @Test
+    void findsChangedMemberAnnotations() {
+        var a = classFile("A", PUBLIC_CLASS, writer -> writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null));
+        var b = classFile("A", PUBLIC_CLASS, writer -> writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null)
+            .visitAnnotation("Ljava/lang/Deprecated;", true));
+
+        var change = diff(jar(a), jar(b)).changedClasses().getFirst();
+
+        assertEquals(List.of(new ApiDiff.MemberChange("method run()V", List.of("annotations: [] -> [Ljava/lang/Deprecated;]"))), change.changedMembers());
+    }
+
+    @Test
+    void readsJarsOnDiskAndInMemoryTheSame() throws IOException {
+        var a = jar(classFile("A", PUBLIC_CLASS), classFile("B", PUBLIC_CLASS));
+        var b = jar(classFile("A", PUBLIC_CLASS | Opcodes.ACC_FINAL), classFile("C", PUBLIC_CLASS));
+        Path aPath = tempDir.resolve("a.jar");
+        Path bPath = tempDir.resolve("b.jar");
+        a.write(aPath);
+        b.write(bPath);
+
+        try (var pool = new ForkJoinPool(2)) {
+            var report = ApiDiff.diff(aPath, bPath, pool);
+            assertEquals(ApiDiff.diff(a, b, pool), report);
+            assertEquals("""
+                + class C
+                - class B
+                ~ class A
+                    access: public -> public final
+                """, report.toText());
+        }
+    }
+
+    private static ApiDiff.Report diff(JarContents a, JarContents b) {
+        try (var pool = new ForkJoinPool(2)) {
+            return ApiDiff.diff(a, b, pool);
+        }
+    }
+
+    private static JarContents jar(ClassFile... classes) {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (ClassFile c : classes) {
+            entries.put(c.name() + ".class", c.bytes());
+        }
+        return new JarContents(entries);
+    }
+
+    private static ClassFile classFile(String name, int access) {
+        return classFile(name, access, writer -> { });
+    }
+
+    private static ClassFile classFile(String name, int access, Consumer<ClassWriter> members) {
+        return classFile(name, access, null, "java/lang/Object", null, members);
+    }
+
+    private static ClassFile classFile(
+        String name,
+        int access,
+        @Nullable String signature,
+        String superName,
+        String @Nullable [] interfaces,
+        Consumer<ClassWriter> members
+    ) {
+        var writer = new ClassWriter(0);
+        writer.visit(Opcodes.V17, access, name, signature, superName, interfaces);
+        members.accept(writer);
+        writer.visitEnd();
+        return new ClassFile(name, writer.toByteArray());
+    }
+
+    private record ClassFile(String name, byte[] bytes) {
+    }
+}
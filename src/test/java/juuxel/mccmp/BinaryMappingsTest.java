@@ -0,0 +1,115 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class BinaryMappingsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsAllRecordKinds() throws IOException {
+        IMappingProvider provider = out -> {
+            var method = new IMappingProvider.Member("a", "b", "(La;I)V");
+            out.acceptClass("a", "net/minecraft/Block");
+            out.acceptClass("c", "net/minecraft/Ünicode");
+            out.acceptField(new IMappingProvider.Member("a", "c", "La;"), "STONE");
+            out.acceptMethod(method, "place");
+            out.acceptMethodArg(method, 1, "block");
+            out.acceptMethodVar(method, 3, 4, 5, "count");
+        };
+
+        assertEquals(record(provider), record(roundTrip(provider)));
+    }
+
+    @Test
+    void roundTripsMissingNames() throws IOException {
+        // Names that are missing from the mappings are empty strings, which share one string table entry
+        IMappingProvider provider = out -> {
+            out.acceptClass("a", "");
+            out.acceptField(new IMappingProvider.Member("a", "", ""), "");
+            out.acceptMethod(new IMappingProvider.Member("a", "b", "()V"), "");
+            out.acceptMethodArg(new IMappingProvider.Member("a", "b", "()V"), 0, "");
+        };
+
+        assertEquals(record(provider), record(roundTrip(provider)));
+    }
+
+    @Test
+    void roundTripsEmptyMappings() throws IOException {
+        assertEquals(List.of(), record(roundTrip(out -> { })));
+    }
+
+    @Test
+    void canBeLoadedRepeatedly() throws IOException {
+        IMappingProvider provider = out -> out.acceptClass("a", "b");
+        var read = roundTrip(provider);
+
+        assertEquals(record(read), record(read));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path path = tempDir.resolve("other.bin");
+        Files.write(path, new byte[] { 'M', 'C', 'M', 'B', 0, 0, 0, (byte) (BinaryMappings.FORMAT_VERSION + 1) });
+
+        assertThrows(IOException.class, () -> BinaryMappings.read(path));
+    }
+
+    private IMappingProvider roundTrip(IMappingProvider provider) throws IOException {
+        Path path = tempDir.resolve("mappings").resolve("mappings.bin");
+        BinaryMappings.write(provider, path);
+        return BinaryMappings.read(path);
+    }
+
+    private static List<String> record(IMappingProvider provider) {
+        List<String> records = new ArrayList<>();
+        provider.load(new IMappingProvider.MappingAcceptor() {
+            @Override
+            public void acceptClass(String srcName, String dstName) {
+                records.add("class " + srcName + " -> " + dstName);
+            }
+
+            @Override
+            public void acceptMethod(IMappingProvider.Member method, String dstName) {
+                records.add("method " + member(method) + " -> " + dstName);
+            }
+
+            @Override
+            public void acceptMethodArg(IMappingProvider.Member method, int lvIndex, String dstName) {
+                records.add("arg " + member(method) + " " + lvIndex + " -> " + dstName);
+            }
+
+            @Override
+            public void acceptMethodVar(IMappingProvider.Member method, int lvIndex, int startOpIdx, int asmIndex, String dstName) {
+                records.add("var " + member(method) + " " + lvIndex + " " + startOpIdx + " " + asmIndex + " -> " + dstName);
+            }
+
+            @Override
+            public void acceptField(IMappingProvider.Member field, String dstName) {
+                records.add("field " + member(field) + " -> " + dstName);
+            }
+        });
+        return records;
+    }
+
+    private static String member(IMappingProvider.Member member) {
+        return member.owner + "." + member.name + member.desc;
+    }
+}
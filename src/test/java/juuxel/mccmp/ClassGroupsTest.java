@@ -0,0 +1,130 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class ClassGroupsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void groupsInnerClassesWithTheirOutermostClass() {
+        assertEquals("a/b/C.class", ClassGroups.groupOf("a/b/C.class"));
+        assertEquals("a/b/C.class", ClassGroups.groupOf("a/b/C$D.class"));
+        assertEquals("a/b/C.class", ClassGroups.groupOf("a/b/C$D$1.class"));
+        assertEquals("C.class", ClassGroups.groupOf("C$D.class"));
+    }
+
+    @Test
+    void onlyLooksForDollarSignsInTheFileName() {
+        assertEquals("a/b$c/D.class", ClassGroups.groupOf("a/b$c/D.class"));
+        assertEquals("a/b$c/D.class", ClassGroups.groupOf("a/b$c/D$E.class"));
+    }
+
+    @Test
+    void keepsResourcesInTheirOwnGroups() {
+        assertEquals("assets/a$b.json", ClassGroups.groupOf("assets/a$b.json"));
+        assertEquals("META-INF/MANIFEST.MF", ClassGroups.groupOf("META-INF/MANIFEST.MF"));
+    }
+
+    @Test
+    void findsAddedRemovedAndChangedGroups() throws IOException {
+        var a = hash(Map.of(
+            "Same.class", "same",
+            "Changed.class", "old",
+            "Changed$Inner.class", "inner",
+            "Removed.class", "removed",
+            "data.json", "{}"
+        ));
+        var b = hash(Map.of(
+            "Same.class", "same",
+            "Changed.class", "old",
+            "Changed$Inner.class", "changed inner",
+            "Added.class", "added",
+            "data.json", "{}"
+        ));
+
+        var changes = ClassGroups.compare(a, b);
+
+        assertEquals(Set.of("Same.class", "Changed.class", "Removed.class", "data.json"), changes.first().hashes().keySet());
+        assertEquals(Set.of("Changed.class", "Removed.class"), changes.first().changed());
+        assertEquals(Set.of("Changed.class", "Added.class"), changes.second().changed());
+    }
+
+    @Test
+    void hashesJarsOnDiskAndInMemoryTheSame() throws IOException {
+        var entries = Map.of("A.class", "a", "A$B.class", "b", "C.class", "c");
+        var fromDisk = hash(entries);
+        Map<String, byte[]> inMemory;
+
+        try (var pool = new ForkJoinPool(2)) {
+            inMemory = ClassGroups.hash(new JarContents(toBytes(entries)), pool);
+        }
+
+        assertEquals(Set.of(), ClassGroups.compare(fromDisk, inMemory).first().changed());
+    }
+
+    @Test
+    void splitsSelectedGroupsFromTheRest() throws IOException {
+        Path jar = writeJar("input.jar", Map.of(
+            "A.class", "a",
+            "A$B.class", "ab",
+            "C.class", "c",
+            "data.json", "{}"
+        ));
+        Path selected = tempDir.resolve("selected.jar");
+        Path rest = tempDir.resolve("rest.jar");
+
+        ClassGroups.split(jar, Set.of("A.class", "data.json"), selected, rest);
+
+        assertEquals(Set.of("A.class", "A$B.class", "data.json"), JarContents.read(selected).names());
+        assertEquals(Set.of("C.class"), JarContents.read(rest).names());
+        assertEquals("ab", new String(JarContents.read(selected).get("A$B.class"), StandardCharsets.UTF_8));
+    }
+
+    private Map<String, byte[]> hash(Map<String, String> entries) throws IOException {
+        try (var pool = new ForkJoinPool(2)) {
+            return ClassGroups.hash(writeJar(Files.createTempFile(tempDir, "jar", ".jar").getFileName().toString(), entries), pool);
+        }
+    }
+
+    private Path writeJar(String name, Map<String, String> entries) throws IOException {
+        Path jar = tempDir.resolve(name);
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (var entry : new TreeMap<>(entries).entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+
+    private static Map<String, byte[]> toBytes(Map<String, String> entries) {
+        Map<String, byte[]> result = new HashMap<>();
+        entries.forEach((name, contents) -> result.put(name, contents.getBytes(StandardCharsets.UTF_8)));
+        return result;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+final class ClasspathIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void keepsDeclarationsWithoutCodeOrResources() throws IOException {
+        Path jar = writeLibrary("library.jar", "a/Example");
+        var index = new ClasspathIndex(tempDir.resolve("index"));
+
+        var contents = JarContents.read(index.get(jar, "abc").join());
+
+        assertEquals(Set.of("a/Example.class"), contents.names());
+        var node = new ClassNode();
+        new ClassReader(contents.get("a/Example.class")).accept(node, 0);
+        assertEquals("a/Example", node.name);
+        assertEquals("java/util/AbstractList", node.superName);
+        assertEquals(List.of("java/lang/Runnable"), node.interfaces);
+        assertEquals("field", node.fields.get(0).name);
+        var method = node.methods.get(0);
+        assertEquals("run", method.name);
+        assertEquals("()V", method.desc);
+        assertEquals(0, method.instructions.size());
+        assertNull(node.sourceFile);
+    }
+
+    @Test
+    void keysIndexesByHash() throws IOException {
+        var index = new ClasspathIndex(tempDir.resolve("index"));
+        Path first = index.get(writeLibrary("first.jar", "a/First"), "abc").join();
+        Path second = index.get(writeLibrary("second.jar", "a/Second"), "abc").join();
+        Path third = index.get(writeLibrary("third.jar", "a/Third"), "def").join();
+
+        // The same hash means the same library, so the second jar isn't indexed again
+        assertEquals(first, second);
+        assertEquals(Set.of("a/First.class"), JarContents.read(second).names());
+        assertEquals(Set.of("a/Third.class"), JarContents.read(third).names());
+    }
+
+    @Test
+    void computesMissingHashesAndReusesPersistedIndexes() throws IOException {
+        Path jar = writeLibrary("library.jar", "a/Example");
+        var sha1 = Download.sha1(jar);
+        Path indexed = new ClasspathIndex(tempDir.resolve("index")).get(jar, null).join();
+        assertEquals(sha1 + ".jar", indexed.getFileName().toString());
+
+        // A new index finds the persisted entry without reading the library
+        Files.delete(jar);
+        assertEquals(indexed, new ClasspathIndex(tempDir.resolve("index")).get(jar, sha1).join());
+    }
+
+    private Path writeLibrary(String name, String className) throws IOException {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, className, null, "java/util/AbstractList", new String[] { "java/lang/Runnable" });
+        writer.visitSource("Example.java", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "field", "I", null, null).visitEnd();
+        var method = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        Path jar = tempDir.resolve(name);
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(className + ".class"));
+            out.write(writer.toByteArray());
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("data.txt"));
+            out.write("data".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        return jar;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+final class DecompileCacheTest {
+    private static final byte[] SOURCE = new byte[100];
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void countsHitsAndMisses() throws IOException {
+        var cache = new DecompileCache(tempDir, Long.MAX_VALUE);
+        var key = key("a");
+
+        assertNull(cache.get(key));
+        cache.put(key, SOURCE);
+        assertArrayEquals(SOURCE, cache.get(key));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void keysDependOnEveryPart() {
+        var groupHash = new byte[] { 1, 2, 3 };
+        var key = DecompileCache.key(groupHash, "decompiler", "classpath");
+
+        assertEquals(key, DecompileCache.key(groupHash.clone(), "decompiler", "classpath"));
+        assertNotEquals(key, DecompileCache.key(new byte[] { 1, 2, 4 }, "decompiler", "classpath"));
+        assertNotEquals(key, DecompileCache.key(groupHash, "decompiler2", "classpath"));
+        assertNotEquals(key, DecompileCache.key(groupHash, "decompiler", "classpath2"));
+        // The separator keeps the parts from running into each other
+        assertNotEquals(DecompileCache.fingerprint(List.of("ab", "c")), DecompileCache.fingerprint(List.of("a", "bc")));
+    }
+
+    @Test
+    void doesNotEvictWithinBudget() throws IOException {
+        var cache = new DecompileCache(tempDir, 3 * SOURCE.length);
+        cache.put(key("a"), SOURCE);
+        cache.put(key("b"), SOURCE);
+        cache.put(key("c"), SOURCE);
+
+        cache.evict();
+
+        assertNotNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("b")));
+        assertNotNull(cache.get(key("c")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesUntilWithinBudget() throws IOException {
+        var cache = new DecompileCache(tempDir, 2 * SOURCE.length);
+        cache.put(key("a"), SOURCE);
+        cache.put(key("b"), SOURCE);
+        cache.put(key("c"), SOURCE);
+        setLastAccess(key("a"), 1000);
+        setLastAccess(key("b"), 2000);
+        setLastAccess(key("c"), 3000);
+
+        // Reading an entry marks it as recently used
+        assertNotNull(cache.get(key("a")));
+        cache.evict();
+
+        assertNotNull(cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertNotNull(cache.get(key("c")));
+    }
+
+    private void setLastAccess(String key, long millis) throws IOException {
+        Files.setLastModifiedTime(tempDir.resolve(key.substring(0, 2)).resolve(key + ".java"), FileTime.fromMillis(millis));
+    }
+
+    private static String key(String name) {
+        return DecompileCache.key(name.getBytes(StandardCharsets.UTF_8), "decompiler", "classpath");
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class DecompileWorkerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fillsShardsUpToTheMaximumSize() throws IOException {
+        var shards = shard(Map.of(
+            "a/A.class", 40,
+            "a/B.class", 40,
+            "b/C.class", 40,
+            "c/D.class", 40,
+            "d/E.class", 40
+        ), 100);
+
+        assertEquals(List.of(Set.of("a/A.class", "a/B.class"), Set.of("b/C.class", "c/D.class"), Set.of("d/E.class")), shards);
+    }
+
+    @Test
+    void keepsPackagesTogether() throws IOException {
+        // b doesn't fit in the rest of the first shard, so it starts a new one instead of being split
+        var shards = shard(Map.of(
+            "a/A.class", 60,
+            "b/B.class", 30,
+            "b/C.class", 30
+        ), 100);
+
+        assertEquals(List.of(Set.of("a/A.class"), Set.of("b/B.class", "b/C.class")), shards);
+    }
+
+    @Test
+    void splitsPackagesLargerThanTheMaximum() throws IOException {
+        var shards = shard(Map.of(
+            "a/A.class", 50,
+            "a/B.class", 50,
+            "a/C.class", 50,
+            "a/D.class", 50,
+            "a/E.class", 150
+        ), 100);
+
+        assertEquals(List.of(Set.of("a/A.class", "a/B.class"), Set.of("a/C.class", "a/D.class"), Set.of("a/E.class")), shards);
+    }
+
+    @Test
+    void countsInnerClassesWithTheirGroup() throws IOException {
+        var shards = shard(Map.of(
+            "a/A.class", 40,
+            "a/A$Inner.class", 40,
+            "a/B.class", 40
+        ), 100);
+
+        assertEquals(List.of(Set.of("a/A.class"), Set.of("a/B.class")), shards);
+    }
+
+    @Test
+    void onlyShardsTheSelectedGroups() throws IOException {
+        Path jar = writeJar(Map.of("a/A.class", 40, "a/B.class", 40, "b/C.class", 40));
+
+        try (var zip = new ZipFile(jar.toFile())) {
+            assertEquals(List.of(Set.of("a/A.class", "b/C.class")), DecompileWorker.shard(zip, Set.of("a/A.class", "b/C.class"), 100));
+        }
+    }
+
+    @Test
+    void balancesShardSizes() throws IOException {
+        Map<String, Integer> entries = new TreeMap<>();
+        for (int i = 0; i < 200; i++) {
+            entries.put("p" + (i % 7) + "/C" + i + ".class", 10 + (i * 37) % 90);
+        }
+
+        var shards = shard(entries, 1000);
+        Set<String> seen = new HashSet<>();
+
+        for (Set<String> shard : shards) {
+            int size = shard.stream().mapToInt(entries::get).sum();
+            assertTrue(size <= 1000, "shard of " + size + " bytes");
+            for (String group : shard) {
+                assertTrue(seen.add(group), group + " is in multiple shards");
+            }
+        }
+
+        assertEquals(entries.keySet(), seen);
+        // A shard is only closed when the next group doesn't fit, so each shard and the next one together exceed the maximum
+        for (int i = 0; i + 1 < shards.size(); i++) {
+            int size = shards.get(i).stream().mapToInt(entries::get).sum();
+            int next = shards.get(i + 1).stream().mapToInt(entries::get).sum();
+            assertTrue(size + next > 1000, "shards " + i + " and " + (i + 1) + " could be merged");
+        }
+    }
+
+    @Test
+    void splitsEachEntryIntoOneJar() throws IOException {
+        Path jar = writeJar(Map.of("a/A.class", 1, "a/A$B.class", 2, "b/C.class", 3, "D.class", 4, "data.json", 5));
+        List<Path> shardJars = List.of(tempDir.resolve("shard-0.jar"), tempDir.resolve("shard-1.jar"));
+        Path contextJar = tempDir.resolve("context.jar");
+
+        ClassGroups.split(jar, List.of(Set.of("a/A.class"), Set.of("b/C.class", "D.class")), shardJars, contextJar);
+
+        assertEquals(Set.of("a/A.class", "a/A$B.class"), JarContents.read(shardJars.get(0)).names());
+        assertEquals(Set.of("b/C.class", "D.class"), JarContents.read(shardJars.get(1)).names());
+        assertEquals(Set.of("data.json"), JarContents.read(contextJar).names());
+    }
+
+    private List<Set<String>> shard(Map<String, Integer> entries, long maxShardSize) throws IOException {
+        Path jar = writeJar(entries);
+        Set<String> groups = new HashSet<>();
+        entries.keySet().forEach(name -> groups.add(ClassGroups.groupOf(name)));
+
+        try (var zip = new ZipFile(jar.toFile())) {
+            return DecompileWorker.shard(zip, groups, maxShardSize);
+        }
+    }
+
+    // Writes a jar whose entries have the given sizes
+    private Path writeJar(Map<String, Integer> entries) throws IOException {
+        Path jar = Files.createTempFile(tempDir, "game", ".jar");
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (var entry : new TreeMap<>(entries).entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(new byte[entry.getValue()]);
+                out.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class DiffIndexTest {
+    // Not sorted by path, like patches that are added as their diffs finish
+    private static final List<SourceDiff.FilePatch> PATCHES = List.of(
+        patch("net/minecraft/world/level/Level.java", null, SourceDiff.ChangeKind.CHANGED, 3, 2),
+        patch("Main.java", null, SourceDiff.ChangeKind.ADDED, 10, 0),
+        patch("net/minecraft/worldgen/Feature.java", null, SourceDiff.ChangeKind.REMOVED, 0, 7),
+        patch("net/minecraft/world/Block.java", "net/minecraft/block/Block.java", SourceDiff.ChangeKind.RENAMED, 1, 1),
+        patch("com/mojang/Util.java", null, SourceDiff.ChangeKind.CHANGED, 4, 4),
+        patch("net/minecraft/world/Entity.java", null, SourceDiff.ChangeKind.ADDED, 20, 0),
+        patch("net/minecraft/Bootstrap.java", null, SourceDiff.ChangeKind.CHANGED, 1, 0)
+    );
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void queriesEntriesByPackage() throws IOException {
+        try (var index = DiffIndex.open(write())) {
+            assertEquals(PATCHES.size(), index.size());
+            assertEquals(List.of(
+                "net/minecraft/world/Block.java",
+                "net/minecraft/world/Entity.java",
+                "net/minecraft/world/level/Level.java"
+            ), paths(index.query("net.minecraft.world", Set.of())));
+            assertEquals(List.of("net/minecraft/world/level/Level.java"), paths(index.query("net.minecraft.world.level", Set.of())));
+            // A prefix of a package name isn't a package
+            assertEquals(List.of(), paths(index.query("net.minecraft.wor", Set.of())));
+            assertEquals(List.of("com/mojang/Util.java"), paths(index.query("com", Set.of())));
+            assertEquals(List.of(), paths(index.query("org", Set.of())));
+            assertEquals(List.of(), paths(index.query("zzz", Set.of())));
+        }
+    }
+
+    @Test
+    void queriesAllEntriesFromTheDefaultPackage() throws IOException {
+        var sortedPaths = PATCHES.stream().map(SourceDiff.FilePatch::path).sorted().toList();
+
+        try (var index = DiffIndex.open(write())) {
+            assertEquals(sortedPaths, paths(index.query(null, Set.of())));
+            assertEquals(sortedPaths, paths(index.query("", Set.of())));
+        }
+    }
+
+    @Test
+    void filtersEntriesByKind() throws IOException {
+        try (var index = DiffIndex.open(write())) {
+            assertEquals(List.of("Main.java", "net/minecraft/world/Entity.java"), paths(index.query(null, Set.of(SourceDiff.ChangeKind.ADDED))));
+            assertEquals(
+                List.of("net/minecraft/world/Block.java", "net/minecraft/worldgen/Feature.java"),
+                paths(index.query("net.minecraft", Set.of(SourceDiff.ChangeKind.RENAMED, SourceDiff.ChangeKind.REMOVED)))
+            );
+            assertEquals(List.of(), paths(index.query("com", Set.of(SourceDiff.ChangeKind.ADDED))));
+        }
+    }
+
+    @Test
+    void readsEntriesAndPatches() throws IOException {
+        try (var index = DiffIndex.open(write())) {
+            for (var entry : index.query(null, Set.of())) {
+                var patch = PATCHES.stream().filter(p -> p.path().equals(entry.path())).findFirst().orElseThrow();
+                assertEquals(patch.renamedFrom(), entry.renamedFrom());
+                assertEquals(patch.kind(), entry.kind());
+                assertEquals(patch.addedLines(), entry.addedLines());
+                assertEquals(patch.removedLines(), entry.removedLines());
+                assertEquals(patch.text(), index.readPatch(entry));
+            }
+
+            var rename = index.query("net.minecraft.world", Set.of(SourceDiff.ChangeKind.RENAMED)).getFirst();
+            assertEquals("net/minecraft/block/Block.java", rename.renamedFrom());
+            assertNull(index.query(null, Set.of(SourceDiff.ChangeKind.ADDED)).getFirst().renamedFrom());
+        }
+    }
+
+    @Test
+    void acceptsPatchesFromMultipleThreads() throws Exception {
+        Path indexPath = tempDir.resolve("diff.index");
+
+        try (var writer = new DiffIndex.Writer(indexPath)) {
+            try (var executor = Executors.newFixedThreadPool(4)) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (var patch : PATCHES) {
+                    futures.add(executor.submit(() -> {
+                        writer.add(patch, patch.text().getBytes(StandardCharsets.UTF_8));
+                        return null;
+                    }));
+                }
+                for (var future : futures) future.get();
+            }
+            writer.finish();
+        }
+
+        try (var index = DiffIndex.open(indexPath)) {
+            for (var entry : index.query(null, Set.of())) {
+                assertEquals(patchText(entry.path()), index.readPatch(entry));
+            }
+        }
+    }
+
+    @Test
+    void discardsUnfinishedIndices() throws IOException {
+        Path indexPath = tempDir.resolve("diff.index");
+
+        try (var writer = new DiffIndex.Writer(indexPath)) {
+            writer.add(PATCHES.getFirst(), PATCHES.getFirst().text().getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertFalse(Files.exists(indexPath));
+        assertFalse(Files.exists(DiffIndex.blobPath(indexPath)));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = tempDir.resolve("other.index");
+        Files.write(file, new byte[16]);
+
+        assertThrows(IOException.class, () -> DiffIndex.open(file));
+    }
+
+    private Path write() throws IOException {
+        Path indexPath = tempDir.resolve("diff.index");
+
+        try (var writer = new DiffIndex.Writer(indexPath)) {
+            for (var patch : PATCHES) {
+                writer.add(patch, patch.text().getBytes(StandardCharsets.UTF_8));
+            }
+            writer.finish();
+        }
+
+        return indexPath;
+    }
+
+    private static List<String> paths(List<DiffIndex.Entry> entries) {
+        return entries.stream().map(DiffIndex.Entry::path).toList();
+    }
+
+    private static SourceDiff.FilePatch patch(String path, @Nullable String renamedFrom, SourceDiff.ChangeKind kind, int added, int removed) {
+        return new SourceDiff.FilePatch(path, renamedFrom, kind, patchText(path), added, removed);
+    }
+
+    private static String patchText(String path) {
+        return "--- a/" + path + "\n+++ b/" + path + "\n";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class DownloadQueueTest {
+    private static final URI HOST_A = URI.create("https://a.example/file");
+    private static final URI HOST_B = URI.create("https://b.example/file");
+
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    void startsWaitingRequestsInPriorityOrder() {
+        var queue = new DownloadQueue(1, 1);
+        var blocker = new CompletableFuture<String>();
+        queue.submit(HOST_A, Download.Priority.CRITICAL, () -> blocker);
+        queue.submit(HOST_A, Download.Priority.BACKGROUND, completing("background"));
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("library 1"));
+        queue.submit(HOST_A, Download.Priority.CRITICAL, completing("critical"));
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("library 2"));
+
+        assertEquals(List.of(), started);
+        blocker.complete("blocker");
+        assertEquals(List.of("critical", "library 1", "library 2", "background"), started);
+    }
+
+    @Test
+    void limitsRequestsPerHost() {
+        var queue = new DownloadQueue(4, 1);
+        var blocker = new CompletableFuture<String>();
+        queue.submit(HOST_A, Download.Priority.LIBRARY, () -> blocker);
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("a"));
+        queue.submit(HOST_B, Download.Priority.LIBRARY, completing("b"));
+
+        // The request to the other host isn't blocked by the one waiting for host a
+        assertEquals(List.of("b"), started);
+        blocker.complete("blocker");
+        assertEquals(List.of("b", "a"), started);
+    }
+
+    @Test
+    void startsBackgroundRequestsWhenForegroundIsIdle() {
+        var queue = new DownloadQueue(4, 4);
+        var blocker = new CompletableFuture<String>();
+        queue.submit(HOST_A, Download.Priority.LIBRARY, () -> blocker);
+        queue.submit(HOST_B, Download.Priority.BACKGROUND, completing("background"));
+
+        assertEquals(List.of(), started);
+        blocker.complete("blocker");
+        assertEquals(List.of("background"), started);
+    }
+
+    @Test
+    void cancellingWaitingRequestRemovesIt() {
+        var queue = new DownloadQueue(1, 1);
+        var blocker = new CompletableFuture<String>();
+        queue.submit(HOST_A, Download.Priority.LIBRARY, () -> blocker);
+        var cancelled = queue.submit(HOST_A, Download.Priority.LIBRARY, completing("cancelled"));
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("next"));
+
+        cancelled.cancel(true);
+        blocker.complete("blocker");
+        assertEquals(List.of("next"), started);
+    }
+
+    @Test
+    void cancellingStartedRequestCancelsItAndFreesSlot() {
+        var queue = new DownloadQueue(1, 1);
+        var request = new CompletableFuture<String>();
+        var result = queue.submit(HOST_A, Download.Priority.LIBRARY, () -> request);
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("next"));
+
+        result.cancel(true);
+        assertTrue(request.isCancelled());
+        assertEquals(List.of("next"), started);
+    }
+
+    @Test
+    void failedRequestFreesSlot() {
+        var queue = new DownloadQueue(1, 1);
+        var result = queue.submit(HOST_A, Download.Priority.LIBRARY, () -> CompletableFuture.<String>failedFuture(new IOException("failed")));
+        queue.submit(HOST_A, Download.Priority.LIBRARY, completing("next"));
+
+        var exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(IOException.class, exception.getCause());
+        assertEquals(List.of("next"), started);
+    }
+
+    private Supplier<CompletableFuture<String>> completing(String name) {
+        return () -> {
+            started.add(name);
+            return CompletableFuture.completedFuture(name);
+        };
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class DownloadTest {
+    private static final byte[] CONTENT = createContent(64 * 1024);
+    private static final String CONTENT_SHA1 = sha1(CONTENT);
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    // The Range header of each request, or an empty string if it had none
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        Download.setMetadataCache(null);
+        Download.setOffline(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void downloadsAndVerifiesFile() {
+        serveWithRanges("/file.jar", CONTENT);
+        Path target = tempDir.resolve("file.jar");
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+        assertFalse(Files.exists(partPath(target)));
+        assertEquals(List.of(""), ranges);
+    }
+
+    @Test
+    void resumesPartialDownloadWithRangeRequest() throws IOException {
+        serveWithRanges("/file.jar", CONTENT);
+        Path target = tempDir.resolve("file.jar");
+        Files.write(partPath(target), Arrays.copyOf(CONTENT, 1000));
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+        assertFalse(Files.exists(partPath(target)));
+        assertEquals(List.of("bytes=1000-"), ranges);
+    }
+
+    @Test
+    void restartsWhenPartFileIsLongerThanFile() throws IOException {
+        serveWithRanges("/file.jar", CONTENT);
+        Path target = tempDir.resolve("file.jar");
+        Files.write(partPath(target), new byte[CONTENT.length + 10]);
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+        // The 416 response deletes the part file, so the retry starts from the beginning
+        assertEquals(List.of("bytes=" + (CONTENT.length + 10) + "-", ""), ranges);
+    }
+
+    @Test
+    void startsOverWhenServerIgnoresRange() throws IOException {
+        serve("/file.jar", (exchange, attempt) -> sendBody(exchange, 200, CONTENT));
+        Path target = tempDir.resolve("file.jar");
+        Files.write(partPath(target), new byte[1000]);
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+    }
+
+    @Test
+    void retriesAfterHashMismatch() {
+        serve("/file.jar", (exchange, attempt) -> {
+            byte[] body = CONTENT.clone();
+            if (attempt == 1) body[100] ^= 1;
+            sendBody(exchange, 200, body);
+        });
+        Path target = tempDir.resolve("file.jar");
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+        assertEquals(2, ranges.size());
+    }
+
+    @Test
+    void doesNotRetryMissingFile() {
+        serve("/missing.jar", (exchange, attempt) -> exchange.sendResponseHeaders(404, -1));
+        Path target = tempDir.resolve("missing.jar");
+
+        var exception = assertThrows(CompletionException.class, () -> download(target, "/missing.jar"));
+
+        assertTrue(Futures.getCauseChain(exception).anyMatch(t -> t instanceof Download.StatusCodeException e && e.statusCode() == 404));
+        assertEquals(1, ranges.size());
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void keepsValidExistingFile() throws IOException {
+        serveWithRanges("/file.jar", CONTENT);
+        Path target = tempDir.resolve("file.jar");
+        Files.write(target, CONTENT);
+
+        download(target, "/file.jar");
+
+        assertEquals(List.of(), ranges);
+    }
+
+    @Test
+    void replacesCorruptedExistingFile() throws IOException {
+        serveWithRanges("/file.jar", CONTENT);
+        Path target = tempDir.resolve("file.jar");
+        Files.write(target, new byte[CONTENT.length]);
+
+        download(target, "/file.jar");
+
+        assertArrayEquals(CONTENT, readAllBytes(target));
+        assertEquals(List.of(""), ranges);
+    }
+
+    private void download(Path target, String path) {
+        var url = "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        Download.file(target, url, CONTENT_SHA1, (long) CONTENT.length).join();
+    }
+
+    private void serve(String path, Handler handler) {
+        var attempts = new AtomicInteger();
+        server.createContext(path, exchange -> {
+            try (exchange) {
+                var range = exchange.getRequestHeaders().getFirst("Range");
+                ranges.add(range != null ? range : "");
+                handler.handle(exchange, attempts.incrementAndGet());
+            }
+        });
+    }
+
+    private void serveWithRanges(String path, byte[] content) {
+        serve(path, (exchange, attempt) -> {
+            var range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null) {
+                sendBody(exchange, 200, content);
+                return;
+            }
+
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (start >= content.length) {
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Range", "bytes %d-%d/%d".formatted(start, content.length - 1, content.length));
+            sendBody(exchange, 206, Arrays.copyOfRange(content, start, content.length));
+        });
+    }
+
+    private static void sendBody(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(statusCode, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Path partPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    private static byte[] readAllBytes(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return content;
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, int attempt) throws IOException;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class FuturesTest {
+    private static final Predicate<Throwable> NOT_FOUND = t -> t instanceof Download.StatusCodeException e && e.statusCode() == 404;
+
+    @Test
+    void waitsForPreferredCandidate() {
+        var first = new CompletableFuture<String>();
+        var second = CompletableFuture.completedFuture("second");
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        assertFalse(result.isDone());
+        first.complete("first");
+        assertEquals("first", result.join());
+    }
+
+    @Test
+    void fallsBackWhenPreferredCandidateFailsAcceptably() {
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        second.complete("second");
+        assertFalse(result.isDone());
+        first.completeExceptionally(new Download.StatusCodeException(404));
+        assertEquals("second", result.join());
+    }
+
+    @Test
+    void cancelsLosingCandidates() {
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        first.complete("first");
+        assertEquals("first", result.join());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    void failsOnUnacceptableError() {
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        first.completeExceptionally(new IOException("connection reset"));
+        var exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(IOException.class, exception.getCause());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    void failsWithLastErrorWhenAllCandidatesFail() {
+        var first = CompletableFuture.<String>failedFuture(new Download.StatusCodeException(404));
+        var second = new CompletableFuture<String>();
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        var lastError = new Download.StatusCodeException(404);
+        second.completeExceptionally(lastError);
+        var exception = assertThrows(CompletionException.class, result::join);
+        assertEquals(lastError, exception.getCause());
+    }
+
+    @Test
+    void cancellingResultCancelsCandidates() {
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        result.cancel(true);
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    void cancelsLosingDerivedCandidatesAtTheSource() {
+        var firstSource = new CompletableFuture<String>();
+        var secondSource = new CompletableFuture<String>();
+        var first = Futures.forwardCancellation(firstSource.thenApply(String::toUpperCase), firstSource);
+        var second = Futures.forwardCancellation(secondSource.thenApply(String::toUpperCase), secondSource);
+        var result = Futures.firstAcceptable(NOT_FOUND, candidates(first, second));
+
+        firstSource.complete("first");
+        assertEquals("FIRST", result.join());
+        assertTrue(secondSource.isCancelled());
+    }
+
+    @Test
+    void forwardsOnlyCancellation() {
+        var source = new CompletableFuture<String>();
+        var derived = Futures.forwardCancellation(new CompletableFuture<String>(), source);
+
+        derived.completeExceptionally(new IOException());
+        assertFalse(source.isDone());
+    }
+
+    private static List<Supplier<CompletableFuture<String>>> candidates(CompletableFuture<String> first, CompletableFuture<String> second) {
+        return List.of(() -> first, () -> second);
+    }
+}
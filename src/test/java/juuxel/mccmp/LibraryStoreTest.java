@@ -0,0 +1,82 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class LibraryStoreTest {
+    private static final byte[] CONTENT = "library contents".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // The first request fails with a status code that isn't retried
+        server.createContext("/library.jar", exchange -> {
+            try (exchange) {
+                if (requests.incrementAndGet() == 1) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, CONTENT.length);
+                    exchange.getResponseBody().write(CONTENT);
+                }
+            }
+        });
+        server.start();
+        Download.setMetadataCache(null);
+        Download.setOffline(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void retriesFailedDownload() throws IOException {
+        var store = new LibraryStore(tempDir.resolve("store"));
+        var url = "http://127.0.0.1:" + server.getAddress().getPort() + "/library.jar";
+        Path target = tempDir.resolve("libraries").resolve("library.jar");
+
+        assertThrows(CompletionException.class, () -> store.get(target, url, sha1(CONTENT), (long) CONTENT.length, Download.Priority.LIBRARY).join());
+        store.get(target, url, sha1(CONTENT), (long) CONTENT.length, Download.Priority.LIBRARY).join();
+
+        assertEquals(2, requests.get());
+        assertEquals(new String(CONTENT, StandardCharsets.UTF_8), Files.readString(target));
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class LineDiffTest {
+    @Test
+    void diffsEmptyToNonEmpty() {
+        var changes = diff("", "a\nb\n");
+
+        assertEquals(List.of(new LineDiff.Change(0, 0, 0, 2)), changes);
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -0,0 +1,2 @@
+            +a
+            +b
+            """, format("", "a\nb\n"));
+    }
+
+    @Test
+    void diffsNonEmptyToEmpty() {
+        assertEquals(List.of(new LineDiff.Change(0, 2, 0, 0)), diff("a\nb\n", ""));
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -1,2 +0,0 @@
+            -a
+            -b
+            """, format("a\nb\n", ""));
+    }
+
+    @Test
+    void findsNoChangesInIdenticalTexts() {
+        assertEquals(List.of(), diff("", ""));
+        assertEquals(List.of(), diff("a\nb\nc\n", "a\nb\nc\n"));
+        assertEquals("--- a/x\n+++ b/x\n", format("a\n", "a\n"));
+    }
+
+    @Test
+    void diffsSingleLineChange() {
+        assertEquals(List.of(new LineDiff.Change(1, 2, 1, 2)), diff("a\nb\nc\n", "a\nx\nc\n"));
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -1,3 +1,3 @@
+             a
+            -b
+            +x
+             c
+            """, format("a\nb\nc\n", "a\nx\nc\n"));
+    }
+
+    @Test
+    void findsShortestEditScripts() {
+        var random = new Random(1234);
+
+        // Small alphabets produce many equal lines, so the middle snake is often found away from the ends
+        for (int i = 0; i < 2000; i++) {
+            var a = randomText(random, random.nextInt(15));
+            var b = randomText(random, random.nextInt(15));
+            var changes = diff(a, b);
+            var aLines = splitLines(a);
+            var bLines = splitLines(b);
+
+            int edits = LineDiff.addedLines(changes) + LineDiff.removedLines(changes);
+            assertEquals(aLines.size() + bLines.size() - 2 * lcs(aLines, bLines), edits, a + " -> " + b);
+            assertEquals(b, apply(a, format(a, b)), a + " -> " + b);
+        }
+    }
+
+    @Test
+    void keepsThreeLinesOfContext() {
+        var a = lines(1, 20);
+        var b = a.replace("line 10\n", "changed\n");
+
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -7,7 +7,7 @@
+             line 7
+             line 8
+             line 9
+            -line 10
+            +changed
+             line 11
+             line 12
+             line 13
+            """, format(a, b));
+    }
+
+    @Test
+    void mergesHunksWhoseContextOverlaps() {
+        var a = lines(1, 30);
+        // Six unchanged lines between the changes: the context touches, so there's one hunk
+        var merged = a.replace("line 5\n", "x\n").replace("line 12\n", "y\n");
+        // Seven unchanged lines: the hunks stay apart
+        var separate = a.replace("line 5\n", "x\n").replace("line 13\n", "y\n");
+
+        assertEquals(List.of("@@ -2,14 +2,14 @@"), hunkHeaders(format(a, merged)));
+        assertEquals(List.of("@@ -2,7 +2,7 @@", "@@ -10,7 +10,7 @@"), hunkHeaders(format(a, separate)));
+        assertEquals(merged, apply(a, format(a, merged)));
+        assertEquals(separate, apply(a, format(a, separate)));
+    }
+
+    @Test
+    void clampsContextAtFileBoundaries() {
+        assertEquals(List.of("@@ -1,3 +1,3 @@"), hunkHeaders(format("a\nb\nc\n", "x\nb\nc\n")));
+        assertEquals(List.of("@@ -1,3 +1,3 @@"), hunkHeaders(format("a\nb\nc\n", "a\nb\nx\n")));
+    }
+
+    @Test
+    void marksMissingFinalNewline() {
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -1,2 +1,2 @@
+             a
+            -b
+            \\ No newline at end of file
+            +b
+            """, format("a\nb", "a\nb\n"));
+        assertEquals("""
+            --- a/x
+            +++ b/x
+            @@ -1,2 +1,2 @@
+             a
+            -b
+            +c
+            \\ No newline at end of file
+            """, format("a\nb\n", "a\nc"));
+        assertEquals(List.of(), diff("a\nb", "a\nb"));
+        assertEquals("a\nb\n", apply("a\nb", format("a\nb", "a\nb\n")));
+        assertEquals("a\nc", apply("a\nb\n", format("a\nb\n", "a\nc")));
+        assertEquals("x\nb", apply("a\nb", format("a\nb", "x\nb")));
+    }
+
+    @Test
+    void keepsCarriageReturns() {
+        var a = "a\r\nb\r\nc\r\n";
+        var b = "a\r\nx\r\nc\r\n";
+
+        assertEquals(List.of(new LineDiff.Change(1, 2, 1, 2)), diff(a, b));
+        assertTrue(format(a, b).contains("-b\r\n+x\r\n"));
+        assertEquals(b, apply(a, format(a, b)));
+        // Only the line endings changed
+        assertEquals("a\r\nb\r\nc\r\n", apply("a\nb\nc\n", format("a\nb\nc\n", a)));
+    }
+
+    @Test
+    void roundTripsPatches() {
+        List<String[]> cases = List.of(
+            new String[] { "", "a\n" },
+            new String[] { "a\n", "" },
+            new String[] { "a", "" },
+            new String[] { "", "a" },
+            new String[] { lines(1, 40), lines(5, 45) },
+            new String[] { lines(1, 40), lines(1, 10) + "inserted\n" + lines(11, 40) },
+            new String[] { lines(1, 40), lines(1, 15) + lines(30, 40) + "end" },
+            new String[] { "a\r\nb\r\n", "a\nb\n" }
+        );
+
+        for (String[] texts : cases) {
+            assertEquals(texts[1], apply(texts[0], format(texts[0], texts[1])), texts[0] + " -> " + texts[1]);
+        }
+    }
+
+    private static List<LineDiff.Change> diff(String a, String b) {
+        return LineDiff.diff(LineDiff.Text.of(a), LineDiff.Text.of(b));
+    }
+
+    private static String format(String a, String b) {
+        var aText = LineDiff.Text.of(a);
+        var bText = LineDiff.Text.of(b);
+        return LineDiff.format("a/x", "b/x", aText, bText, LineDiff.diff(aText, bText));
+    }
+
+    private static String lines(int from, int to) {
+        var sb = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int lines) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append((char) ('a' + random.nextInt(3))).append('\n');
+        }
+        // Sometimes without a final newline
+        if (lines > 0 && random.nextInt(4) == 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    // The length of the longest common subsequence of lines, where a line with a newline differs from one without
+    private static int lcs(List<String> a, List<String> b) {
+        int[][] lengths = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; i--) {
+            for (int j = b.size() - 1; j >= 0; j--) {
+                lengths[i][j] = a.get(i).equals(b.get(j))
+                    ? lengths[i + 1][j + 1] + 1
+                    : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        return lengths[0][0];
+    }
+
+    private static List<String> hunkHeaders(String patch) {
+        return patch.lines().filter(line -> line.startsWith("@@")).toList();
+    }
+
+    /**
+     * Applies a unified diff like {@code patch} would, checking that the context and removed lines match.
+     */
+    private static String apply(String text, String patch) {
+        var aLines = splitLines(text);
+        List<String> output = new ArrayList<>();
+        var patchLines = splitLines(patch);
+        int position = 0;
+        boolean inHunk = false;
+
+        for (int i = 0; i < patchLines.size(); i++) {
+            var line = patchLines.get(i);
+            // Skips the file headers and the no newline markers, which are handled with the line before them
+            if (!inHunk && !line.startsWith("@@") || line.startsWith("\\")) continue;
+
+            if (line.startsWith("@@")) {
+                var range = line.substring(4, line.indexOf(' ', 4)).split(",");
+                int hunkStart = Integer.parseInt(range[0]);
+                // Empty ranges refer to the line before them
+                int target = Integer.parseInt(range[1]) == 0 ? hunkStart : hunkStart - 1;
+                while (position < target) output.add(aLines.get(position++));
+                inHunk = true;
+                continue;
+            }
+
+            var content = line.substring(1);
+            // The marker after a line means that it doesn't end with a newline
+            if (i + 1 < patchLines.size() && patchLines.get(i + 1).startsWith("\\")) {
+                content = content.substring(0, content.length() - 1);
+            }
+
+            switch (line.charAt(0)) {
+                case ' ' -> {
+                    assertEquals(aLines.get(position++), content);
+                    output.add(content);
+                }
+                case '-' -> assertEquals(aLines.get(position++), content);
+                case '+' -> output.add(content);
+                default -> throw new AssertionError("Unknown patch line: " + line);
+            }
+        }
+
+        while (position < aLines.size()) output.add(aLines.get(position++));
+        return String.join("", output);
+    }
+
+    // Splits a text into lines that keep their terminators
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+
+        return lines;
+    }
+}
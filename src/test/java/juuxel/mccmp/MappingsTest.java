@@ -0,0 +1,154 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import net.fabricmc.stitch.commands.CommandProposeFieldNames;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+final class MappingsTest {
+    private static final String TINY_V1 = """
+        v1\tofficial\tintermediary\tnamed
+        CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/Block
+        CLASS\tb\tnet/minecraft/class_2
+        FIELD\ta\tLa;\tb\tfield_1\tfield_1
+        FIELD\ta\tLa;\tc\tfield_2
+        FIELD\ta\tLa;\td\tfield_3\tNAMED
+        FIELD\tb\tLa;\te\tfield_4\tfield_4
+        FIELD\tb\tI\tf\tfield_5
+        """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void proposesTheSameFieldNamesAsStitch() throws Exception {
+        Path gameJar = writeGameJar();
+        Path mappingsJar = writeMappingsJar(TINY_V1);
+        Path inputTiny = tempDir.resolve("input.tiny");
+        Path stitchTiny = tempDir.resolve("stitch.tiny");
+        Files.writeString(inputTiny, TINY_V1);
+
+        new CommandProposeFieldNames().run(new String[] { gameJar.toString(), inputTiny.toString(), stitchTiny.toString() });
+        Path tiny = Mappings.extractMappings(gameJar, mappingsJar, 2);
+
+        var expected = namedFields(stitchTiny);
+        assertEquals(expected, namedFields(tiny));
+        // Guards against the comparison passing because neither proposed anything
+        assertEquals("STONE", expected.get("a.b"));
+    }
+
+    @Test
+    void cachedMappingsSkipExtraction() throws IOException {
+        Path gameJar = writeGameJar();
+        Path mappingsJar = writeMappingsJar(TINY_V1);
+        var sha1 = Download.sha1(gameJar);
+        Path first = Mappings.loadMappings(gameJar, sha1, mappingsJar, tempDir.resolve("cache"), 1);
+
+        // The extraction would need to read the game jar and write the Tiny file
+        Files.delete(gameJar);
+        Files.delete(mappingsJar.resolveSibling("yarn.tiny"));
+        Path second = Mappings.loadMappings(gameJar, sha1, mappingsJar, tempDir.resolve("cache"), 1);
+
+        assertEquals(first, second);
+        assertFalse(Files.exists(mappingsJar.resolveSibling("yarn.tiny")));
+    }
+
+    // Maps owner.name to the named name of each field
+    private static Map<String, String> namedFields(Path tiny) throws IOException {
+        List<String> lines = Files.readAllLines(tiny);
+        var header = List.of(lines.get(0).split("\t"));
+        int namedColumn = header.indexOf("named") + 2;
+        int intermediaryColumn = header.indexOf("intermediary") + 2;
+        Map<String, String> result = new HashMap<>();
+
+        for (String line : lines) {
+            var parts = line.split("\t", -1);
+            if (!parts[0].equals("FIELD")) continue;
+            // A missing named name falls back to the intermediary one
+            var named = parts.length > namedColumn && !parts[namedColumn].isEmpty() ? parts[namedColumn] : parts[intermediaryColumn];
+            result.put(parts[1] + "." + parts[3], named);
+        }
+
+        return result;
+    }
+
+    private Path writeGameJar() throws IOException {
+        Path jar = tempDir.resolve("game.jar");
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("a.class"));
+            out.write(registryClass("a", Map.of("b", "stone", "c", "dirt", "d", "grass")));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("b.class"));
+            out.write(registryClass("b", Map.of("e", "oak_log")));
+            out.closeEntry();
+        }
+
+        return jar;
+    }
+
+    private Path writeMappingsJar(String tiny) throws IOException {
+        Path jar = tempDir.resolve("mappings").resolve("yarn.jar");
+        Files.createDirectories(jar.getParent());
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("mappings/mappings.tiny"));
+            out.write(tiny.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        return jar;
+    }
+
+    // Generates a class like Minecraft's registries, where each constant is created from its ID: static final a b = new a("stone");
+    private static byte[] registryClass(String name, Map<String, String> constants) {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+        var constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(Ljava/lang/String;)V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        var init = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        init.visitCode();
+
+        for (var constant : constants.entrySet()) {
+            writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, constant.getKey(), "La;", null, null).visitEnd();
+            init.visitTypeInsn(Opcodes.NEW, "a");
+            init.visitInsn(Opcodes.DUP);
+            init.visitLdcInsn(constant.getValue());
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, "a", "<init>", "(Ljava/lang/String;)V", false);
+            init.visitFieldInsn(Opcodes.PUTSTATIC, name, constant.getKey(), "La;");
+        }
+
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class MetricsTest {
+    private static final int MAX_INDEX = Metrics.bucketIndex(Long.MAX_VALUE);
+
+    @Test
+    void keepsSmallValuesExact() {
+        for (int nanos = 0; nanos < 16; nanos++) {
+            assertEquals(nanos, Metrics.bucketMaxNanos(Metrics.bucketIndex(nanos)));
+        }
+    }
+
+    @Test
+    void bucketsCoverAllValuesWithoutGaps() {
+        // Each bucket starts right after the previous one ends
+        for (int i = 1; i <= MAX_INDEX; i++) {
+            long start = Metrics.bucketMaxNanos(i - 1) + 1;
+            assertEquals(i, Metrics.bucketIndex(start), "start of bucket " + i);
+            assertEquals(i, Metrics.bucketIndex(Metrics.bucketMaxNanos(i)), "end of bucket " + i);
+        }
+
+        assertEquals(Long.MAX_VALUE, Metrics.bucketMaxNanos(MAX_INDEX));
+    }
+
+    @Test
+    void bucketsAreWithinAnEighthOfTheirValues() {
+        var random = new Random(1234);
+
+        for (int i = 0; i < 100_000; i++) {
+            long nanos = random.nextLong(Long.MAX_VALUE >>> random.nextInt(63));
+            long max = Metrics.bucketMaxNanos(Metrics.bucketIndex(nanos));
+
+            assertTrue(max >= nanos, nanos + " is above its bucket");
+            assertTrue(max - nanos <= nanos / 8, nanos + " is in a bucket ending at " + max);
+        }
+    }
+
+    @Test
+    void computesPercentilesFromTheBucketMaximum() {
+        long[] histogram = new long[MAX_INDEX + 1];
+        // 90 classes at 1 ms, 9 at 10 ms and one at 1 s
+        histogram[Metrics.bucketIndex(1_000_000)] += 90;
+        histogram[Metrics.bucketIndex(10_000_000)] += 9;
+        histogram[Metrics.bucketIndex(1_000_000_000)] += 1;
+
+        assertEquals(millis(1_000_000), Metrics.percentileMillis(histogram, 100, 0.5));
+        assertEquals(millis(1_000_000), Metrics.percentileMillis(histogram, 100, 0.9));
+        assertEquals(millis(10_000_000), Metrics.percentileMillis(histogram, 100, 0.91));
+        assertEquals(millis(10_000_000), Metrics.percentileMillis(histogram, 100, 0.99));
+        assertEquals(millis(1_000_000_000), Metrics.percentileMillis(histogram, 100, 1));
+        // The lowest percentile is the first value
+        assertEquals(millis(1_000_000), Metrics.percentileMillis(histogram, 100, 0));
+    }
+
+    @Test
+    void reportsZeroWithoutValues() {
+        assertEquals(0.0, Metrics.percentileMillis(new long[MAX_INDEX + 1], 0, 0.5));
+    }
+
+    @Test
+    void snapshotsIncludeRecordedTimes() {
+        var before = Metrics.snapshot();
+        Metrics.recordDecompileTime(5_000_000);
+        Metrics.recordDecompileTime(-1);
+        var after = Metrics.snapshot();
+
+        int index = Metrics.bucketIndex(5_000_000);
+        assertEquals(1, after.decompileTimes()[index] - before.decompileTimes()[index]);
+        // Negative times from clock adjustments are counted as zero
+        assertEquals(1, after.decompileTimes()[0] - before.decompileTimes()[0]);
+    }
+
+    private static double millis(long nanos) {
+        return Metrics.bucketMaxNanos(Metrics.bucketIndex(nanos)) / 1_000_000.0;
+    }
+}
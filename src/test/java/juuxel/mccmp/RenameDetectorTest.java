@@ -0,0 +1,191 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class RenameDetectorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void pairsRenamedFilesWithSmallEdits() {
+        var original = javaFile("Block", 40);
+        var edited = new ArrayList<>(original);
+        edited.set(20, "    int changed = 20;");
+
+        var renames = RenameDetector.detect(Map.of("a/Block.java", signature(original)), Map.of("b/Block.java", signature(edited)));
+
+        var rename = renames.get("a/Block.java");
+        assertEquals("b/Block.java", rename.to());
+        assertTrue(rename.similarity() >= RenameDetector.MIN_SIMILARITY && rename.similarity() < 1, String.valueOf(rename.similarity()));
+    }
+
+    @Test
+    void doesNotPairUnrelatedFiles() {
+        var removed = javaFile("Block", 40);
+        var added = javaFile("Item", 40).stream().map(line -> line.replace("int", "long")).toList();
+
+        double similarity = RenameDetector.similarity(signature(removed), signature(added));
+        assertTrue(similarity < RenameDetector.MIN_SIMILARITY, String.valueOf(similarity));
+        assertEquals(Map.of(), RenameDetector.detect(Map.of("a/Block.java", signature(removed)), Map.of("b/Item.java", signature(added))));
+    }
+
+    @Test
+    void pairsEachFileOnlyOnce() {
+        // Identical files collide in every band, so each removed file is a candidate for every added file
+        var contents = signature(javaFile("Copy", 30));
+
+        var renames = RenameDetector.detect(
+            Map.of("a/One.java", contents, "a/Two.java", contents, "a/Three.java", contents),
+            Map.of("b/One.java", contents, "b/Two.java", contents)
+        );
+
+        assertEquals(2, renames.size());
+        assertEquals(Set.of("b/One.java", "b/Two.java"), Set.copyOf(renames.values().stream().map(RenameDetector.Rename::to).toList()));
+        // Files that kept their name are preferred between equally similar pairs
+        assertEquals("b/One.java", renames.get("a/One.java").to());
+        assertEquals("b/Two.java", renames.get("a/Two.java").to());
+        assertNull(renames.get("a/Three.java"));
+    }
+
+    @Test
+    void prefersTheMostSimilarPair() {
+        var original = javaFile("Block", 40);
+        var slightlyEdited = new ArrayList<>(original);
+        slightlyEdited.set(10, "    int changed = 10;");
+        var heavilyEdited = new ArrayList<>(slightlyEdited);
+        for (int i = 20; i < 30; i++) heavilyEdited.set(i, "    int changed" + i + " = " + i + ";");
+
+        var renames = RenameDetector.detect(
+            Map.of("a/Block.java", signature(original)),
+            Map.of("b/Block.java", signature(heavilyEdited), "c/Renamed.java", signature(slightlyEdited))
+        );
+
+        assertEquals("c/Renamed.java", renames.get("a/Block.java").to());
+    }
+
+    @Test
+    void ignoresIndentationAndBlankLines() {
+        var lines = javaFile("Block", 20);
+        var reformatted = new ArrayList<String>();
+        for (String line : lines) {
+            reformatted.add("\t" + line.strip());
+            reformatted.add("");
+        }
+
+        assertEquals(1.0, RenameDetector.similarity(signature(lines), signature(reformatted)));
+        assertNull(RenameDetector.signature(List.of("", "   ")));
+    }
+
+    @Test
+    void writesGitRenameHeadersAndHunks() throws IOException {
+        var original = javaFile("Block", 10);
+        var edited = new ArrayList<>(original);
+        edited.set(5, "    int changed = 5;");
+        Path a = write("a/Block.java", original);
+        Path b = write("b/Block.java", edited);
+
+        var patch = SourceDiff.diffRename(new RenameDetector.Rename("net/a/Block.java", "net/b/Block.java", 0.75), a, b);
+
+        assertEquals(SourceDiff.ChangeKind.RENAMED, patch.kind());
+        assertEquals("net/b/Block.java", patch.path());
+        assertEquals("net/a/Block.java", patch.renamedFrom());
+        assertEquals(1, patch.addedLines());
+        assertEquals(1, patch.removedLines());
+        assertEquals("""
+            diff --git a/net/a/Block.java b/net/b/Block.java
+            similarity index 75%
+            rename from net/a/Block.java
+            rename to net/b/Block.java
+            --- a/net/a/Block.java
+            +++ b/net/b/Block.java
+            @@ -3,7 +3,7 @@
+                 int field1 = 1;
+                 int field2 = 2;
+                 int field3 = 3;
+            -    int field4 = 4;
+            +    int changed = 5;
+                 int field5 = 5;
+                 int field6 = 6;
+                 int field7 = 7;
+            """, patch.text());
+    }
+
+    @Test
+    void writesOnlyHeadersForPureRenames() throws IOException {
+        var lines = javaFile("Block", 10);
+        Path a = write("a/Block.java", lines);
+        Path b = write("b/Block.java", lines);
+
+        var patch = SourceDiff.diffRename(new RenameDetector.Rename("a/Block.java", "b/Block.java", 1), a, b);
+
+        assertEquals("""
+            diff --git a/a/Block.java b/b/Block.java
+            similarity index 100%
+            rename from a/Block.java
+            rename to b/Block.java
+            """, patch.text());
+        assertEquals(0, patch.addedLines() + patch.removedLines());
+    }
+
+    @Test
+    void detectsRenamesInSourceDiffs() throws IOException {
+        var original = javaFile("Block", 40);
+        var edited = new ArrayList<>(original);
+        edited.set(20, "    int changed = 20;");
+        write("a/old/Block.java", original);
+        write("b/new/Block.java", edited);
+        write("a/old/Removed.java", javaFile("Removed", 10).stream().map(line -> line.replace("int", "byte")).toList());
+        write("b/new/Added.java", javaFile("Added", 10).stream().map(line -> line.replace("int", "char")).toList());
+        Path output = tempDir.resolve("output");
+
+        SourceDiff.Summary summary;
+        try (var pool = new ForkJoinPool(2)) {
+            summary = SourceDiff.diff(tempDir.resolve("a"), tempDir.resolve("b"), output, null, null, pool);
+        }
+
+        assertEquals(new SourceDiff.Summary(0, 0, 1, 1, 1, 13, 13), summary);
+        assertTrue(Files.readString(output.resolve("new/Block.java.patch")).startsWith("diff --git a/old/Block.java b/new/Block.java\n"));
+    }
+
+    private Path write(String path, List<String> lines) throws IOException {
+        Path file = tempDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, String.join("\n", lines) + "\n");
+        return file;
+    }
+
+    // A class with numbered fields, whose lines are all different
+    private static List<String> javaFile(String name, int fields) {
+        List<String> lines = new ArrayList<>();
+        lines.add("public class " + name + " {");
+        for (int i = 0; i < fields; i++) {
+            lines.add("    int field" + i + " = " + i + ";");
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    private static long[] signature(List<String> lines) {
+        return RenameDetector.signature(lines);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Types;
+import com.sun.net.httpserver.HttpServer;
+import juuxel.mccmp.data.GlobalManifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class ServeCommandTest {
+    private static final JsonAdapter<Map<String, Object>> JSON_ADAPTER =
+        Download.MOSHI.adapter(Types.newParameterizedType(Map.class, String.class, Object.class));
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    @TempDir
+    Path tempDir;
+
+    // Serves the version manifests, which only respond once the test has finished so that jobs keep running
+    private HttpServer metadataServer;
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicInteger manifestRequests = new AtomicInteger();
+    private Pipeline pipeline;
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        metadataServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        metadataServer.createContext("/", exchange -> {
+            try (exchange) {
+                manifestRequests.incrementAndGet();
+                released.await();
+                exchange.sendResponseHeaders(404, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        metadataServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        metadataServer.start();
+        Download.setMetadataCache(null);
+        Download.setOffline(false);
+
+        var baseUrl = "http://127.0.0.1:" + metadataServer.getAddress().getPort();
+        Path cacheDir = tempDir.resolve("cache");
+        new VersionIndex(cacheDir.resolve("versions.idx")).update(new GlobalManifest(List.of(
+            new GlobalManifest.Version("1.1", "release", baseUrl + "/1.1.json", "2020-01-02T00:00:00+00:00"),
+            new GlobalManifest.Version("1.0", "release", baseUrl + "/1.0.json", "2020-01-01T00:00:00+00:00")
+        )));
+
+        pipeline = new Pipeline(tempDir.resolve("output"), cacheDir, 1024 * 1024, 1, false, null, tempDir.resolve("store"), false, false);
+        server = new ServeCommand().start(pipeline, new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.stop(0);
+        released.countDown();
+        metadataServer.stop(0);
+        pipeline.close();
+    }
+
+    @Test
+    void concurrentRequestsForOnePairShareAJob() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(CLIENT.sendAsync(post("/jobs?from=1.0&to=1.1"), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        Set<Object> ids = new HashSet<>();
+        for (var response : responses) {
+            assertEquals(202, response.join().statusCode());
+            ids.add(json(response.join().body()).get("id"));
+        }
+
+        assertEquals(1, ids.size());
+        var status = json(get("/jobs/" + ids.iterator().next()).body());
+        assertEquals("running", status.get("status"));
+        // Each version's manifest is only requested by the one pipeline run, and the requests might still be on their way
+        assertTrue(manifestRequests.get() <= 2, manifestRequests.get() + " manifest requests");
+    }
+
+    @Test
+    void reportsStatusAsJson() throws Exception {
+        completeDiff("1.0", "1.1");
+
+        var response = send(post("/jobs?from=1.0&to=1.1"));
+        var status = json(response.body());
+
+        assertEquals(202, response.statusCode());
+        assertEquals("application/json", response.headers().firstValue("Content-Type").orElse(null));
+        assertEquals(Set.of("id", "from", "to", "status"), status.keySet());
+        assertEquals("1.0", status.get("from"));
+        assertEquals("1.1", status.get("to"));
+        assertEquals("done", status.get("status"));
+        assertNull(status.get("error"));
+        assertEquals(status, json(get("/jobs/" + status.get("id")).body()));
+    }
+
+    @Test
+    void rerunsDiffsWithoutACurrentCompletionManifest() throws Exception {
+        completeDiff("1.0", "1.1");
+        // Like a marker written by an older version, which doesn't record the tools that wrote the diff
+        Files.delete(pipeline.getDiffDirectory("1.0", "1.1").resolveSibling(Pipeline.pairName("1.0", "1.1") + ".complete.inputs"));
+
+        var status = json(send(post("/jobs?from=1.0&to=1.1")).body());
+
+        assertEquals("running", status.get("status"));
+    }
+
+    @Test
+    void servesFilesOfFinishedJobs() throws Exception {
+        completeDiff("1.0", "1.1");
+        var id = json(send(post("/jobs?from=1.0&to=1.1")).body()).get("id");
+
+        assertEquals("[\"a/B.java.patch\"]", get("/jobs/" + id + "/files").body());
+        var file = get("/jobs/" + id + "/files/a/B.java.patch");
+        assertEquals(200, file.statusCode());
+        assertEquals("patch", file.body());
+    }
+
+    @Test
+    void rejectsPathTraversalInFileRoute() throws Exception {
+        completeDiff("1.0", "1.1");
+        Files.writeString(tempDir.resolve("output").resolve("secret.txt"), "secret");
+        var id = json(send(post("/jobs?from=1.0&to=1.1")).body()).get("id");
+
+        for (String path : List.of("../../secret.txt", "..%2F..%2Fsecret.txt", "a/../../../secret.txt", "%2E%2E/%2E%2E/secret.txt")) {
+            var response = get("/jobs/" + id + "/files/" + path);
+            assertEquals(404, response.statusCode(), path);
+            assertFalse(response.body().contains("secret"), path);
+        }
+    }
+
+    @Test
+    void rejectsInvalidVersionIds() throws Exception {
+        assertEquals(400, send(post("/jobs?from=..&to=1.1")).statusCode());
+        assertEquals(400, send(post("/jobs?from=1.0%2F..&to=1.1")).statusCode());
+        assertEquals(400, send(post("/jobs?from=1.0")).statusCode());
+        assertEquals(0, manifestRequests.get());
+    }
+
+    // Writes a finished diff, which the server reuses without running the pipeline
+    private void completeDiff(String from, String to) throws IOException {
+        Path diffDir = pipeline.getDiffDirectory(from, to);
+        Files.createDirectories(diffDir.resolve("a"));
+        Files.writeString(diffDir.resolve("a").resolve("B.java.patch"), "patch");
+        pipeline.markDiffComplete(from, to);
+    }
+
+    private HttpRequest post(String path) {
+        return HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(uri(path)).GET().build());
+    }
+
+    private static HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static Map<String, Object> json(String json) throws IOException {
+        return JSON_ADAPTER.fromJson(json);
+    }
+}
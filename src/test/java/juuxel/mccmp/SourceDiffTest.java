@@ -0,0 +1,143 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class SourceDiffTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesPatchesForChangedFiles() throws IOException {
+        Path a = writeTree("a", Map.of(
+            "pkg/Same.java", "class Same {}\n",
+            "pkg/Changed.java", "class Changed {\n    int x;\n}\n",
+            "pkg/Removed.java", "class Removed {\n    void removed() {}\n}\n"
+        ));
+        Path b = writeTree("b", Map.of(
+            "pkg/Same.java", "class Same {}\n",
+            "pkg/Changed.java", "class Changed {\n    long x;\n}\n",
+            "other/Added.java", "interface Added {\n    String value();\n}\n"
+        ));
+        Path output = tempDir.resolve("output");
+
+        var summary = diff(a, b, output);
+
+        assertEquals(new SourceDiff.Summary(1, 1, 1, 1, 0, 4, 4), summary);
+        assertEquals(Set.of("pkg/Changed.java.patch", "pkg/Removed.java.patch", "other/Added.java.patch"), listFiles(output));
+        assertEquals("""
+            --- a/pkg/Changed.java
+            +++ b/pkg/Changed.java
+            @@ -1,3 +1,3 @@
+             class Changed {
+            -    int x;
+            +    long x;
+             }
+            """, Files.readString(output.resolve("pkg/Changed.java.patch")));
+        assertEquals("""
+            --- /dev/null
+            +++ b/other/Added.java
+            @@ -0,0 +1,3 @@
+            +interface Added {
+            +    String value();
+            +}
+            """, Files.readString(output.resolve("other/Added.java.patch")));
+        assertEquals("""
+            --- a/pkg/Removed.java
+            +++ /dev/null
+            @@ -1,3 +0,0 @@
+            -class Removed {
+            -    void removed() {}
+            -}
+            """, Files.readString(output.resolve("pkg/Removed.java.patch")));
+    }
+
+    @Test
+    void reportsBinaryFiles() throws IOException {
+        Path a = writeTree("a", Map.of());
+        Files.write(a.resolve("image.png"), new byte[] { (byte) 0x89, 'P', 'N', 'G', (byte) 0xFF });
+        Path b = writeTree("b", Map.of());
+        Files.write(b.resolve("image.png"), new byte[] { (byte) 0x89, 'P', 'N', 'G', (byte) 0xFE });
+        Path output = tempDir.resolve("output");
+
+        var summary = diff(a, b, output);
+
+        assertEquals(new SourceDiff.Summary(0, 1, 0, 0, 0, 0, 0), summary);
+        assertEquals("Binary files a/image.png and b/image.png differ\n", Files.readString(output.resolve("image.png.patch")));
+    }
+
+    @Test
+    void clearsTheOutputDirectory() throws IOException {
+        Path a = writeTree("a", Map.of("A.java", "a\n"));
+        Path b = writeTree("b", Map.of("A.java", "b\n"));
+        Path output = tempDir.resolve("output");
+        Files.createDirectories(output.resolve("old"));
+        Files.writeString(output.resolve("old/Stale.java.patch"), "stale");
+
+        diff(a, b, output);
+
+        assertEquals(Set.of("A.java.patch"), listFiles(output));
+    }
+
+    @Test
+    void printsSummary() {
+        var out = new ByteArrayOutputStream();
+        new SourceDiff.Summary(10, 4, 3, 2, 1, 100, 50).print(new PrintStream(out, true, StandardCharsets.UTF_8));
+
+        assertEquals("""
+            Unchanged files: 10
+            Changed files:   4
+            Added files:     3
+            Removed files:   2
+            Renamed files:   1
+            Added lines:     100
+            Removed lines:   50
+            """, out.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+    }
+
+    private SourceDiff.Summary diff(Path a, Path b, Path output) throws IOException {
+        try (var pool = new ForkJoinPool(2)) {
+            return SourceDiff.diff(a, b, output, null, null, pool);
+        }
+    }
+
+    private Path writeTree(String name, Map<String, String> files) throws IOException {
+        Path root = tempDir.resolve(name);
+        Files.createDirectories(root);
+
+        for (var entry : files.entrySet()) {
+            Path file = root.resolve(entry.getKey());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, entry.getValue());
+        }
+
+        return root;
+    }
+
+    private static Set<String> listFiles(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                .map(path -> root.relativize(path).toString().replace('\\', '/'))
+                .collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class StageManifestTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void isUpToDateAfterCommit() throws IOException {
+        Path output = writeOutput("output");
+        var manifest = manifest(output, "a");
+        assertFalse(manifest.isUpToDate());
+
+        manifest.commit();
+
+        assertTrue(manifest.isUpToDate());
+        assertTrue(manifest(output, "a").isUpToDate());
+        assertEquals(output.resolveSibling("output.bin.inputs"), manifest.path());
+    }
+
+    @Test
+    void isOutdatedWhenAnInputChanges() throws IOException {
+        Path output = writeOutput("output");
+        manifest(output, "a").commit();
+
+        assertFalse(manifest(output, "b").isUpToDate());
+        assertFalse(manifest(output, "a").input("extra", 1).isUpToDate());
+        assertFalse(new StageManifest("stage", output).isUpToDate());
+        assertFalse(new StageManifest("stage", output).input("other", "a").isUpToDate());
+    }
+
+    @Test
+    void isOutdatedForAnotherStage() throws IOException {
+        Path output = writeOutput("output");
+        manifest(output, "a").commit();
+
+        assertFalse(new StageManifest("other", output).input("value", "a").isUpToDate());
+    }
+
+    @Test
+    void isOutdatedWhenTheOutputIsMissingOrChanged() throws IOException {
+        Path output = writeOutput("output");
+        manifest(output, "a").commit();
+
+        Files.writeString(output, "truncated");
+        assertFalse(manifest(output, "a").isUpToDate());
+
+        Files.delete(output);
+        assertFalse(manifest(output, "a").isUpToDate());
+    }
+
+    @Test
+    void tracksDirectoryOutputsWithoutSize() throws IOException {
+        Path output = tempDir.resolve("directory");
+        Files.createDirectories(output);
+        var manifest = new StageManifest("stage", output).input("value", "a");
+        manifest.commit();
+
+        Files.writeString(output.resolve("file.txt"), "added");
+
+        assertTrue(manifest.isUpToDate());
+    }
+
+    @Test
+    void hashesInputFiles() throws IOException {
+        Path output = writeOutput("output");
+        Path input = tempDir.resolve("input.txt");
+        Files.writeString(input, "first");
+        new StageManifest("stage", output).inputFile("input", input).commit();
+
+        assertTrue(new StageManifest("stage", output).inputFile("input", input).isUpToDate());
+        Files.writeString(input, "second");
+        assertFalse(new StageManifest("stage", output).inputFile("input", input).isUpToDate());
+    }
+
+    @Test
+    void hashesCode() throws IOException {
+        Path output = writeOutput("output");
+        new StageManifest("stage", output).code("code", StageManifest.class).commit();
+
+        assertTrue(new StageManifest("stage", output).code("code", StageManifest.class).isUpToDate());
+        assertFalse(new StageManifest("stage", output).code("code", StageManifest.class, LineDiff.class).isUpToDate());
+        assertFalse(new StageManifest("stage", output).code("other", StageManifest.class).isUpToDate());
+    }
+
+    @Test
+    void invalidateRemovesTheManifest() throws IOException {
+        Path output = writeOutput("output");
+        var manifest = manifest(output, "a");
+        manifest.commit();
+
+        manifest.invalidate();
+
+        assertFalse(Files.exists(manifest.path()));
+        assertFalse(manifest.isUpToDate());
+    }
+
+    @Test
+    void runsStagesOnlyWhenOutdated() throws IOException {
+        Path output = tempDir.resolve("output.bin");
+        var runs = new AtomicInteger();
+        StageManifest.Action action = () -> {
+            runs.incrementAndGet();
+            Files.writeString(output, "output");
+        };
+
+        assertTrue(manifest(output, "a").run(action));
+        assertFalse(manifest(output, "a").run(action));
+        assertTrue(manifest(output, "b").run(action));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void doesNotCommitFailedStages() throws IOException {
+        Path output = writeOutput("old output");
+        manifest(output, "a").commit();
+
+        assertThrows(IOException.class, () -> manifest(output, "b").run(() -> {
+            Files.writeString(output, "half-written");
+            throw new IOException("failed");
+        }));
+
+        // Neither the old nor the new inputs describe the output now
+        assertFalse(manifest(output, "a").isUpToDate());
+        assertFalse(manifest(output, "b").isUpToDate());
+    }
+
+    private Path writeOutput(String contents) throws IOException {
+        Path output = tempDir.resolve("output.bin");
+        Files.writeString(output, contents);
+        return output;
+    }
+
+    private static StageManifest manifest(Path output, String value) {
+        return new StageManifest("stage", output).input("value", value);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp;
+
+import juuxel.mccmp.data.GlobalManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class VersionIndexTest {
+    // Newest first, like the global manifest
+    private static final GlobalManifest MANIFEST = new GlobalManifest(List.of(
+        new GlobalManifest.Version("1.21", "release", "https://example.com/1.21.json", "2024-06-13T08:24:03+00:00"),
+        new GlobalManifest.Version("24w14a", "snapshot", "https://example.com/24w14a.json", "2024-04-03T12:00:00+00:00"),
+        new GlobalManifest.Version("1.20.4", "release", "https://example.com/1.20.4.json", "2023-12-07T12:56:20+00:00")
+    ));
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void ordersVersionsFromOldestToNewest() throws IOException {
+        var index = new VersionIndex(tempDir.resolve("versions.idx"));
+        index.update(MANIFEST);
+
+        assertEquals(List.of("1.20.4", "24w14a", "1.21"), index.versions().stream().map(VersionIndex.Entry::id).toList());
+        assertEquals(0, index.indexOf("1.20.4"));
+        assertEquals(2, index.indexOf("1.21"));
+        assertEquals(-1, index.indexOf("1.19"));
+        assertEquals(new VersionIndex.Entry("24w14a", "snapshot", "https://example.com/24w14a.json", "2024-04-03T12:00:00+00:00"), index.get("24w14a"));
+        assertNull(index.get("1.19"));
+    }
+
+    @Test
+    void persistsTheIndex() throws IOException {
+        Path file = tempDir.resolve("cache").resolve("versions.idx");
+        var index = new VersionIndex(file);
+        assertTrue(index.isEmpty());
+        index.update(MANIFEST);
+
+        var reloaded = new VersionIndex(file);
+
+        assertFalse(reloaded.isEmpty());
+        assertEquals(index.versions(), reloaded.versions());
+    }
+
+    @Test
+    void storesMissingProperties() throws IOException {
+        Path file = tempDir.resolve("versions.idx");
+        new VersionIndex(file).update(new GlobalManifest(List.of(
+            new GlobalManifest.Version("b", null, "https://example.com/b.json", null),
+            new GlobalManifest.Version("a", "release", null, "2024-01-01T00:00:00+00:00"),
+            // Can't be looked up, so it's left out
+            new GlobalManifest.Version(null, "release", "https://example.com/unknown.json", null)
+        )));
+
+        var reloaded = new VersionIndex(file);
+
+        assertEquals(List.of(
+            new VersionIndex.Entry("a", "release", null, "2024-01-01T00:00:00+00:00"),
+            new VersionIndex.Entry("b", null, "https://example.com/b.json", null)
+        ), reloaded.versions());
+    }
+
+    @Test
+    void replacesTheIndexOnUpdate() throws IOException {
+        Path file = tempDir.resolve("versions.idx");
+        var index = new VersionIndex(file);
+        index.update(MANIFEST);
+        index.update(new GlobalManifest(List.of(new GlobalManifest.Version("1.21.1", "release", "https://example.com/1.21.1.json", "2024-08-08T12:24:45+00:00"))));
+
+        assertEquals(List.of("1.21.1"), index.versions().stream().map(VersionIndex.Entry::id).toList());
+        assertEquals(-1, index.indexOf("1.21"));
+        assertEquals(index.versions(), new VersionIndex(file).versions());
+    }
+
+    @Test
+    void ignoresUnreadableIndexes() throws IOException {
+        Path otherFormat = tempDir.resolve("other.idx");
+        Files.write(otherFormat, new byte[] { 'm', 'c', 'v', 'i', 0, 0, 0, 1, 0, 0, 0, 0 });
+        Path truncated = tempDir.resolve("truncated.idx");
+        new VersionIndex(truncated).update(MANIFEST);
+        Files.write(truncated, Arrays.copyOf(Files.readAllBytes(truncated), 20));
+
+        assertTrue(new VersionIndex(otherFormat).isEmpty());
+        assertTrue(new VersionIndex(truncated).isEmpty());
+    }
+}
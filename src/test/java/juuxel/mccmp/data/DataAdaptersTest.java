@@ -0,0 +1,139 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package juuxel.mccmp.data;
+
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+final class DataAdaptersTest {
+    private static final Moshi MOSHI = new Moshi.Builder().add(DataAdapters.FACTORY).build();
+
+    @Test
+    void readsGlobalManifest() throws IOException {
+        var manifest = MOSHI.adapter(GlobalManifest.class).fromJson("""
+            {
+              "latest": {"release": "1.21", "snapshot": "1.21"},
+              "versions": [
+                {
+                  "id": "1.21",
+                  "type": "release",
+                  "url": "https://example.com/1.21.json",
+                  "time": "2024-06-13T08:32:38+00:00",
+                  "releaseTime": "2024-06-13T08:24:03+00:00",
+                  "sha1": "abc",
+                  "complianceLevel": 1
+                }
+              ]
+            }
+            """);
+
+        assertEquals(new GlobalManifest(List.of(
+            new GlobalManifest.Version("1.21", "release", "https://example.com/1.21.json", "2024-06-13T08:24:03+00:00")
+        )), manifest);
+    }
+
+    @Test
+    void skipsUnknownPropertiesOfEveryKind() throws IOException {
+        var version = MOSHI.adapter(GlobalManifest.Version.class).fromJson("""
+            {
+              "object": {"nested": {"id": "wrong"}, "list": [1, 2]},
+              "array": [{"id": "wrong"}, [], null],
+              "id": "1.21",
+              "number": 1.5,
+              "boolean": true,
+              "null": null,
+              "string": "wrong"
+            }
+            """);
+
+        assertEquals(new GlobalManifest.Version("1.21", null, null, null), version);
+    }
+
+    @Test
+    void readsMissingAndNullPropertiesAsNull() throws IOException {
+        var download = MOSHI.adapter(VersionManifest.Download.class).fromJson("""
+            {"url": "https://example.com/client.jar", "sha1": null}
+            """);
+
+        assertEquals(new VersionManifest.Download("https://example.com/client.jar", null, null), download);
+        assertNull(MOSHI.adapter(VersionManifest.Download.class).fromJson("null"));
+    }
+
+    @Test
+    void readsVersionManifest() throws IOException {
+        var manifest = MOSHI.adapter(VersionManifest.class).fromJson("""
+            {
+              "arguments": {"game": ["--username", {"rules": [], "value": "x"}]},
+              "id": "1.21",
+              "downloads": {
+                "client": {"sha1": "abc", "size": 26836906, "url": "https://example.com/client.jar"},
+                "client_mappings": {"sha1": "def", "size": 9643134, "url": "https://example.com/client.txt"}
+              },
+              "libraries": [
+                {
+                  "downloads": {
+                    "artifact": {"path": "a/b/1.0/b-1.0.jar", "sha1": "123", "size": 1234, "url": "https://example.com/b.jar"}
+                  },
+                  "name": "a:b:1.0",
+                  "rules": [{"action": "allow", "os": {"name": "osx"}}]
+                },
+                {"name": "c:d:1.0", "downloads": {}}
+              ],
+              "mainClass": "net.minecraft.client.main.Main"
+            }
+            """);
+
+        assertEquals(new VersionManifest(
+            "1.21",
+            Map.of(
+                "client", new VersionManifest.Download("https://example.com/client.jar", "abc", 26836906L),
+                "client_mappings", new VersionManifest.Download("https://example.com/client.txt", "def", 9643134L)
+            ),
+            List.of(
+                new VersionManifest.Library("a:b:1.0", new VersionManifest.Library.Downloads(
+                    new VersionManifest.Library.Artifact("a/b/1.0/b-1.0.jar", "https://example.com/b.jar", "123", 1234L)
+                )),
+                new VersionManifest.Library("c:d:1.0", new VersionManifest.Library.Downloads(null))
+            )
+        ), manifest);
+    }
+
+    @Test
+    void readsYarnVersions() throws IOException {
+        var adapter = MOSHI.<List<YarnVersion>>adapter(Types.newParameterizedType(List.class, YarnVersion.class));
+
+        assertEquals(
+            List.of(new YarnVersion("1.21+build.1"), new YarnVersion("1.21+build.2")),
+            adapter.fromJson("""
+                [{"gameVersion": "1.21", "separator": "+", "build": 1, "version": "1.21+build.1", "stable": true},
+                 {"version": "1.21+build.2"}]
+                """)
+        );
+    }
+
+    @Test
+    void roundTripsVersionManifest() throws IOException {
+        var adapter = MOSHI.adapter(VersionManifest.class);
+        var manifest = new VersionManifest(
+            "1.21",
+            Map.of("client", new VersionManifest.Download("https://example.com/client.jar", "abc", 1L)),
+            List.of(new VersionManifest.Library("a:b:1.0", new VersionManifest.Library.Downloads(
+                new VersionManifest.Library.Artifact("a/b.jar", "https://example.com/b.jar", null, null)
+            )))
+        );
+
+        assertEquals(manifest, adapter.fromJson(adapter.toJson(manifest)));
+    }
+}